@@ -0,0 +1,154 @@
+package io.todos.cf.cfclient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+// every push variant end to end against the fake cloud controller, reporting total time and api calls
+// per deploy along with the calls of the last one by endpoint. the other params make the platform slower,
+// flaky or rate limited, expire tokens sooner, follow the apps' logs, or push over the last stack.
+// ./mvnw -Pbenchmarks test-compile exec:exec -Djmh.args="DeployBenchmark -p latencyMs=50"
+// ./mvnw -Pbenchmarks test-compile exec:exec -Djmh.args="DeployBenchmark -p variant=lookaside -p bindMs=2000"
+// ./mvnw -Pbenchmarks test-compile exec:exec -Djmh.args="DeployBenchmark -p failing='GET /v2/apps/*'"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DeployBenchmark {
+
+    @Param({"app", "internal", "scs", "mysql", "scs-mysql", "redis", "scs-redis", "lookaside"})
+    String variant;
+
+    // added to every cloud controller call, a typical round trip to a remote foundation
+    @Param("20")
+    int latencyMs;
+
+    // from start to staged
+    @Param("0")
+    int stagingMs;
+
+    // upload bandwidth, 0 for unlimited
+    @Param("0")
+    long uploadBytesPerSecond;
+
+    // added to every service bind on top of latencyMs
+    @Param("0")
+    int bindMs;
+
+    // an endpoint such as "GET /v2/apps/*" that answers failRate of its calls with a 503, empty for none
+    @Param("")
+    String failing;
+
+    @Param("0.2")
+    double failRate;
+
+    // calls the platform takes per second before it answers 429, 0 for no rate limit
+    @Param("0")
+    int rateLimit;
+
+    // lifetime of the tokens the fake issues, the grants by type are reported at the end
+    @Param("3600")
+    int tokenValiditySeconds;
+
+    // an app logs a line this often and the deploy follows the logs as push --follow does, 0 to not follow
+    @Param("0")
+    int logIntervalMs;
+
+    // every deploy after the first goes over the stack the one before pushed
+    @Param("false")
+    boolean over;
+
+    private FakeCloudController cloudController;
+    private FakeFoundation foundation;
+    private final Jobs jobs = new Jobs(1);
+    private final StringWriter logs = new StringWriter();
+    private int run;
+    // the retries gauge counts from the start
+    private int retried;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        cloudController = new FakeCloudController()
+                .latency(Duration.ofMillis(latencyMs))
+                .latency("POST /v2/service_bindings", Duration.ofMillis(bindMs))
+                .staging(Duration.ofMillis(stagingMs))
+                .uploadThroughput(uploadBytesPerSecond)
+                .rateLimit(rateLimit, Duration.ofSeconds(1))
+                .tokenValidity(Duration.ofSeconds(tokenValiditySeconds))
+                .logs(Duration.ofMillis(logIntervalMs));
+        if (!failing.isEmpty()) {
+            cloudController.fail(failing, failRate, 503);
+        }
+        cloudController.start();
+        foundation = new FakeFoundation(cloudController, 5, 200);
+    }
+
+    @Setup(Level.Iteration)
+    public void clean() {
+        if (!over) {
+            cloudController.resetApps();
+        }
+        cloudController.resetCalls();
+        retried = retries();
+        logs.getBuffer().setLength(0);
+    }
+
+    // single shot, so the counts are for one deploy
+    @TearDown(Level.Iteration)
+    public void count() {
+        System.out.print(String.format(" %d api calls, %d retried, %d bytes uploaded ",
+                cloudController.totalCalls(), retries() - retried, cloudController.uploadedBytes()));
+        if (logIntervalMs > 0) {
+            System.out.print(String.format("%d log lines ", logs.toString().split("\n").length));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.out.println();
+        cloudController.calls().forEach((endpoint, count) ->
+                System.out.println(String.format("  %-48s %6d", endpoint, count)));
+        System.out.println("  grants " + cloudController.grants());
+        foundation.close();
+        cloudController.close();
+    }
+
+    private int retries() {
+        return foundation.getMetrics().gauges().get("resilience.retries");
+    }
+
+    @Benchmark
+    public void deploy() throws InterruptedException {
+        String tag = "bench" + (over ? 0 : run++);
+        Topology topology = foundation.getTopologies().variant(variant, tag, FakeFoundation.VERSION);
+        if (logIntervalMs == 0) {
+            foundation.getExecutor().execute(topology).block();
+            return;
+        }
+        LogFollower follower = new LogFollower(topology, name -> foundation.getExecutor(), 2000);
+        Job job = jobs.submit("deploy " + tag, listener -> foundation.getExecutor().execute(topology,
+                StepListener.both(listener, follower)));
+        follower.follow(job, new PrintWriter(logs));
+        if (job.getError() != null) {
+            throw new IllegalStateException("deploy " + tag + " failed", job.getError());
+        }
+    }
+}
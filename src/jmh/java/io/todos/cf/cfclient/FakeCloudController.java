@@ -0,0 +1,1030 @@
+package io.todos.cf.cfclient;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import okio.ByteString;
+import org.cloudfoundry.dropsonde.events.Envelope;
+import org.cloudfoundry.dropsonde.events.LogMessage;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.ipc.netty.NettyContext;
+import reactor.ipc.netty.NettyPipeline;
+import reactor.ipc.netty.http.server.HttpServerRequest;
+import reactor.ipc.netty.http.server.HttpServerResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.ZipInputStream;
+
+// in-process stand-in for the cloud controller v2, uaa and networking endpoints a push uses,
+// with per-endpoint latency, error injection and upload throttling so deploys can be benchmarked offline.
+// endpoints are keyed as "METHOD /path" with guids replaced by *, e.g. "PUT /v2/apps/*/bits".
+// app log streams are websockets on a second port, the doppler endpoint the root links to
+public class FakeCloudController implements AutoCloseable {
+
+    public static final String ORGANIZATION = "todos-org";
+    public static final String SPACE = "todos-space";
+    public static final String DOMAIN = "apps.example.com";
+    public static final String INTERNAL_DOMAIN = "apps.internal";
+    public static final List<String> SERVICES = Collections.unmodifiableList(Arrays.asList(
+            "todos-config", "todos-registry", "todos-database", "todos-redis", "todos-messaging"));
+
+    private static final Pattern GUID = Pattern.compile(
+            "[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+    private static final int RESULTS_PER_PAGE = 50;
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'")
+            .withZone(ZoneOffset.UTC);
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "fake-cc");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // type -> guid -> resource, listed in creation order
+    private final Map<String, Map<String, Resource>> resources = new ConcurrentHashMap<>();
+    // route guid -> app guids
+    private final Map<String, Set<String>> routeApps = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Set<String> knownHashes = ConcurrentHashMap.newKeySet();
+    private volatile boolean learnHashes = true;
+    private final List<Map<String, Object>> policies = Collections.synchronizedList(new ArrayList<>());
+
+    private final Map<String, LongAdder> calls = new ConcurrentSkipListMap<>();
+    private final LongAdder uploaded = new LongAdder();
+    private final LongAdder uploadedEntries = new LongAdder();
+    // cloud controller calls being answered, and the most at once since the last reset
+    private final Set<HttpExchange> answering = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final Map<String, Duration> latencies = new ConcurrentHashMap<>();
+    private final Map<String, Failure> failures = new ConcurrentHashMap<>();
+    private volatile Duration latency = Duration.ZERO;
+    private volatile Duration staging = Duration.ZERO;
+    private volatile long uploadBytesPerSecond;
+    private volatile Duration tokenValidity = Duration.ofHours(1);
+    // calls allowed per window, 0 for no rate limit
+    private volatile int rateLimit;
+    private volatile Duration rateLimitWindow = Duration.ofHours(1);
+    // time between the lines an app logs, zero for none
+    private volatile Duration logInterval = Duration.ZERO;
+    private volatile NettyContext logging;
+    private long windowEnd;
+    private int windowCalls;
+    // uaa grant type -> tokens issued
+    private final Map<String, LongAdder> grants = new ConcurrentSkipListMap<>();
+
+    private final String organizationId;
+    private final String spaceId;
+
+    public FakeCloudController() {
+        try {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 512);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+
+        organizationId = create("organizations", entity("name", ORGANIZATION, "status", "active"));
+        spaceId = create("spaces", entity("name", SPACE, "organization_guid", organizationId));
+        create("shared_domains", entity("name", DOMAIN, "internal", false));
+        create("shared_domains", entity("name", INTERNAL_DOMAIN, "internal", true));
+        for (String service : SERVICES) {
+            create("service_instances", entity("name", service, "space_guid", spaceId,
+                    "type", "managed_service_instance", "credentials", new HashMap<>()));
+        }
+    }
+
+    // another space in the seeded org, returns its guid
+    public String space(String name) {
+        return create("spaces", entity("name", name, "organization_guid", organizationId));
+    }
+
+    public FakeCloudController start() {
+        server.start();
+        logging = reactor.ipc.netty.http.server.HttpServer.create("127.0.0.1", 0)
+                .newHandler(this::stream)
+                .block();
+        return this;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public String getHost() {
+        return server.getAddress().getHostString();
+    }
+
+    // added to every call
+    public FakeCloudController latency(Duration latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    // added to calls on one endpoint, e.g. latency("PUT /v2/resource_match", Duration.ofMillis(300))
+    public FakeCloudController latency(String endpoint, Duration latency) {
+        latencies.put(endpoint, latency);
+        return this;
+    }
+
+    // fails the given share of calls on an endpoint with a cloud controller error payload
+    public FakeCloudController fail(String endpoint, double rate, int status) {
+        failures.put(endpoint, new Failure(rate, status));
+        return this;
+    }
+
+    // answers with X-RateLimit-* headers like the cloud controller, and a 429 with Retry-After once
+    // the calls of a window are used up. token requests aren't counted
+    public FakeCloudController rateLimit(int calls, Duration window) {
+        this.rateLimitWindow = window;
+        this.rateLimit = calls;
+        return this;
+    }
+
+    // time between an app being started and its package being staged
+    public FakeCloudController staging(Duration staging) {
+        this.staging = staging;
+        return this;
+    }
+
+    // an app logs a line every interval: staging lines while it stages, then a cell line and app lines
+    public FakeCloudController logs(Duration interval) {
+        this.logInterval = interval;
+        return this;
+    }
+
+    // caps how fast app bits are read from uploads, 0 for unlimited
+    public FakeCloudController uploadThroughput(long bytesPerSecond) {
+        this.uploadBytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    // the resources the platform has, from now on resource matching offers no longer add to them
+    public FakeCloudController knownResources(Collection<String> hashes) {
+        knownHashes.clear();
+        knownHashes.addAll(hashes);
+        learnHashes = false;
+        return this;
+    }
+
+    public Map<String, Long> calls() {
+        Map<String, Long> calls = new LinkedHashMap<>();
+        this.calls.forEach((endpoint, count) -> calls.put(endpoint, count.sum()));
+        return calls;
+    }
+
+    public long totalCalls() {
+        return calls.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    // lifetime of the access tokens issued
+    public FakeCloudController tokenValidity(Duration tokenValidity) {
+        this.tokenValidity = tokenValidity;
+        return this;
+    }
+
+    // tokens issued by grant type, e.g. password or refresh_token
+    public Map<String, Long> grants() {
+        Map<String, Long> grants = new LinkedHashMap<>();
+        this.grants.forEach((grant, count) -> grants.put(grant, count.sum()));
+        return grants;
+    }
+
+    // token requests aren't counted
+    public int peakInFlight() {
+        return peakInFlight.get();
+    }
+
+    public long uploadedBytes() {
+        return uploaded.sum();
+    }
+
+    // zip entries in the uploaded application parts, each one read back and checked
+    public long uploadedEntries() {
+        return uploadedEntries.sum();
+    }
+
+    public void resetCalls() {
+        calls.clear();
+        uploaded.reset();
+        uploadedEntries.reset();
+        peakInFlight.set(inFlight.get());
+    }
+
+    // drops everything pushed so far, keeping the seeded org, space, domains and services
+    public void resetApps() {
+        for (String type : new String[]{"apps", "routes", "service_bindings", "events"}) {
+            resources.getOrDefault(type, Collections.emptyMap()).clear();
+        }
+        routeApps.clear();
+        policies.clear();
+    }
+
+    public Collection<Map<String, Object>> list(String type) {
+        return resources.getOrDefault(type, Collections.emptyMap()).values().stream()
+                .sorted(Comparator.comparingLong(resource -> resource.sequence))
+                .map(resource -> view(type, resource))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        if (logging != null) {
+            logging.dispose();
+        }
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        if (!path.startsWith("/oauth")) {
+            answering.add(exchange);
+            peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        }
+        try {
+            String method = exchange.getRequestMethod();
+            String endpoint = method + " " + GUID.matcher(path).replaceAll("*");
+            calls.computeIfAbsent(endpoint, key -> new LongAdder()).increment();
+            sleep(latency.plus(latencies.getOrDefault(endpoint, Duration.ZERO)));
+
+            byte[] body = read(exchange.getRequestBody(), endpoint.endsWith("/bits") ? uploadBytesPerSecond : 0);
+            if (rateLimit > 0 && !path.startsWith("/oauth") && limited(exchange)) {
+                respond(exchange, 429, error(10013, "CF-RateLimitExceeded", "rate limit exceeded"));
+                return;
+            }
+            Failure failure = failures.get(endpoint);
+            if (failure != null && ThreadLocalRandom.current().nextDouble() < failure.rate) {
+                if (failure.status == 429 || failure.status == 503) {
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                }
+                respond(exchange, failure.status, error(10001, "CF-InjectedFailure", "injected failure on " + endpoint));
+                return;
+            }
+            Reply reply = route(method, path, query(exchange.getRequestURI().getRawQuery()), body);
+            respond(exchange, reply.status, reply.body);
+        } catch (RuntimeException e) {
+            respond(exchange, 500, error(10001, "CF-ServerError", String.valueOf(e.getMessage())));
+        } finally {
+            answered(exchange);
+            exchange.close();
+        }
+    }
+
+    private boolean limited(HttpExchange exchange) {
+        long now = System.currentTimeMillis();
+        int used;
+        long end;
+        synchronized (this) {
+            if (now >= windowEnd) {
+                windowEnd = now + rateLimitWindow.toMillis();
+                windowCalls = 0;
+            }
+            used = ++windowCalls;
+            end = windowEnd;
+        }
+        long resetSeconds = (end + 999) / 1000;
+        exchange.getResponseHeaders().set("X-RateLimit-Limit", Integer.toString(rateLimit));
+        exchange.getResponseHeaders().set("X-RateLimit-Remaining", Integer.toString(Math.max(0, rateLimit - used)));
+        exchange.getResponseHeaders().set("X-RateLimit-Reset", Long.toString(resetSeconds));
+        if (used <= rateLimit) {
+            return false;
+        }
+        exchange.getResponseHeaders().set("Retry-After", Long.toString(Math.max(1, resetSeconds - now / 1000)));
+        return true;
+    }
+
+    private Reply route(String method, String path, Map<String, List<String>> query, byte[] body) throws IOException {
+        String[] segments = path.replaceAll("^/+|/+$", "").split("/");
+        if (path.equals("/")) {
+            return Reply.ok(root());
+        }
+        if (path.equals("/v2/info")) {
+            return Reply.ok(info());
+        }
+        if (path.equals("/oauth/token") && method.equals("POST")) {
+            return token(body);
+        }
+        if (path.startsWith("/networking/v1/external/policies")) {
+            return policies(method, path, query, body);
+        }
+        if (segments.length < 2 || !segments[0].equals("v2")) {
+            return Reply.notFound(path);
+        }
+        if (method.equals("PUT") && path.equals("/v2/resource_match")) {
+            return resourceMatch(body);
+        }
+        String type = segments[1];
+        String id = segments.length > 2 ? segments[2] : null;
+        String child = segments.length > 3 ? segments[3] : null;
+        String childId = segments.length > 4 ? segments[4] : null;
+
+        if (type.equals("jobs") && id != null) {
+            return Reply.ok(job(id));
+        }
+        if (type.equals("apps") && "bits".equals(child) && method.equals("PUT")) {
+            uploaded.add(body.length);
+            try {
+                uploadedEntries.add(entries(body));
+            } catch (IOException e) {
+                return Reply.of(400, error(160001, "CF-AppBitsUploadInvalid", e.getMessage()));
+            }
+            Resource app = find("apps", id);
+            if (app != null) {
+                synchronized (app) {
+                    app.entity.put("package_updated_at", Instant.now().toString());
+                }
+            }
+            return Reply.of(201, job(UUID.randomUUID().toString()));
+        }
+        if (type.equals("apps") && "copy_bits".equals(child) && method.equals("POST")) {
+            Resource source = find("apps", (String) parse(body).get("source_app_guid"));
+            Resource app = find("apps", id);
+            if (source == null || app == null || source.entity.get("package_updated_at") == null) {
+                return Reply.notFound(path);
+            }
+            synchronized (app) {
+                app.entity.put("package_updated_at", Instant.now().toString());
+            }
+            return Reply.of(201, job(UUID.randomUUID().toString()));
+        }
+        if (type.equals("service_bindings") && id == null && method.equals("POST")) {
+            Map<String, Object> binding = parse(body);
+            if (!scoped("service_bindings", existing -> existing.entity.get("app_guid").equals(binding.get("app_guid"))
+                    && existing.entity.get("service_instance_guid").equals(binding.get("service_instance_guid")))
+                    .isEmpty()) {
+                return Reply.of(400, error(90003, "CF-ServiceBindingAppServiceTaken",
+                        "The app is already bound to the service."));
+            }
+        }
+        if (type.equals("apps") && "instances".equals(child) && method.equals("GET")) {
+            return instances(id);
+        }
+        if (type.equals("spaces") && "summary".equals(child) && method.equals("GET")) {
+            return summary(id);
+        }
+        if (childId != null && (method.equals("PUT") || method.equals("DELETE"))) {
+            return associate(method, type, id, child, childId);
+        }
+        if (child != null && method.equals("GET")) {
+            return list(child, nested(type, id, child), query);
+        }
+        switch (method) {
+            case "GET":
+                return id == null ? list(type, resource -> true, query) : get(type, id);
+            case "POST":
+                Resource created = find(type, create(type, parse(body)));
+                audit(type, created, "create");
+                return Reply.of(201, render(type, created));
+            case "PUT":
+                return update(type, id, parse(body));
+            case "DELETE":
+                return delete(type, id, query);
+            default:
+                return Reply.notFound(path);
+        }
+    }
+
+    private Map<String, Object> root() {
+        String base = "http://" + getHost() + ":" + getPort();
+        Map<String, Object> links = new LinkedHashMap<>();
+        links.put("self", entity("href", base));
+        links.put("cloud_controller_v2", entity("href", base + "/v2", "meta", entity("version", "2.131.0")));
+        links.put("cloud_controller_v3", entity("href", base + "/v3", "meta", entity("version", "3.66.0")));
+        links.put("network_policy_v0", entity("href", base + "/networking/v0/external"));
+        links.put("network_policy_v1", entity("href", base + "/networking/v1/external"));
+        links.put("uaa", entity("href", base));
+        links.put("login", entity("href", base));
+        links.put("authorization_endpoint", entity("href", base));
+        links.put("routing", entity("href", base + "/routing"));
+        links.put("logging", entity("href", "ws://" + getHost() + ":" + logging.address().getPort()));
+        return entity("links", links);
+    }
+
+    private Map<String, Object> info() {
+        String base = "http://" + getHost() + ":" + getPort();
+        return entity("name", "fake", "api_version", "2.131.0", "authorization_endpoint", base,
+                "token_endpoint", base, "routing_endpoint", base + "/routing",
+                "doppler_logging_endpoint", "ws://" + getHost() + ":" + logging.address().getPort());
+    }
+
+    // GET /apps/<guid>/stream, one dropsonde envelope per websocket frame until the client closes it
+    private Publisher<Void> stream(HttpServerRequest request, HttpServerResponse response) {
+        String[] segments = request.uri().replaceAll("\\?.*$", "").replaceAll("^/+|/+$", "").split("/");
+        Resource app = segments.length == 3 && segments[0].equals("apps") && segments[2].equals("stream")
+                ? find("apps", segments[1]) : null;
+        if (app == null) {
+            return response.sendNotFound();
+        }
+        calls.computeIfAbsent("GET /apps/*/stream", key -> new LongAdder()).increment();
+        Duration interval = logInterval;
+        AtomicBoolean placed = new AtomicBoolean();
+        // a client that can't keep up misses lines like it would from doppler, rather than ending the stream
+        Flux<byte[]> lines = interval.isZero() ? Flux.never() : Flux.interval(interval)
+                .onBackpressureDrop()
+                .concatMap(line -> {
+                    if (app.startedAt == null) {
+                        return Mono.empty();
+                    }
+                    if ("PENDING".equals(packageState(app))) {
+                        return Mono.just(envelope(app.guid, "STG", "staging line " + line));
+                    }
+                    if (placed.compareAndSet(false, true)) {
+                        return Mono.just(envelope(app.guid, "CELL", "Creating container for app instance"));
+                    }
+                    return Mono.just(envelope(app.guid, "APP/PROC/WEB", "app line " + line));
+                });
+        return response.sendWebsocket((in, out) -> out.options(NettyPipeline.SendOptions::flushOnEach)
+                .sendByteArray(lines));
+    }
+
+    private static byte[] envelope(String appId, String sourceType, String message) {
+        long now = System.currentTimeMillis() * 1_000_000L;
+        return Envelope.ADAPTER.encode(new Envelope.Builder()
+                .origin("fake")
+                .eventType(Envelope.EventType.LogMessage)
+                .timestamp(now)
+                .logMessage(new LogMessage.Builder()
+                        .message(ByteString.encodeUtf8(message))
+                        .message_type(LogMessage.MessageType.OUT)
+                        .timestamp(now)
+                        .app_id(appId)
+                        .source_type(sourceType)
+                        .source_instance("0")
+                        .build())
+                .build());
+    }
+
+    // an unsigned jwt carrying the exp claim, so clients can tell when it expires
+    private Reply token(byte[] body) throws IOException {
+        String grant = first(query(new String(body, StandardCharsets.UTF_8)), "grant_type");
+        grants.computeIfAbsent(String.valueOf(grant), key -> new LongAdder()).increment();
+        long now = Instant.now().getEpochSecond();
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String access = encoder.encodeToString(mapper.writeValueAsBytes(entity("alg", "none"))) + "."
+                + encoder.encodeToString(mapper.writeValueAsBytes(entity("iat", now,
+                "exp", now + tokenValidity.getSeconds(), "user_name", "todos", "jti", UUID.randomUUID().toString())))
+                + ".";
+        return Reply.ok(entity("access_token", access, "token_type", "bearer",
+                "refresh_token", "fake-refresh-token-" + UUID.randomUUID(), "expires_in", tokenValidity.getSeconds(),
+                "scope", "cloud_controller.admin", "jti", UUID.randomUUID().toString()));
+    }
+
+    // a hash offered once is known from then on, like a platform resource cache warmed by earlier pushes
+    private Reply resourceMatch(byte[] body) throws IOException {
+        List<Map<String, Object>> offered = mapper.readValue(body, mapper.getTypeFactory()
+                .constructCollectionType(List.class, Map.class));
+        List<Map<String, Object>> matched = new ArrayList<>();
+        for (Map<String, Object> resource : offered) {
+            if (knownHashes.contains(String.valueOf(resource.get("sha1")))) {
+                matched.add(resource);
+            }
+        }
+        if (learnHashes) {
+            offered.forEach(resource -> knownHashes.add(String.valueOf(resource.get("sha1"))));
+        }
+        return Reply.ok(matched);
+    }
+
+    // the application part of a bits upload must read back entry by entry and agree with its central
+    // directory, which is where a zip assembled from pieces would go wrong
+    private static int entries(byte[] body) throws IOException {
+        int start = indexOf(body, "filename=\"application.zip\"".getBytes(StandardCharsets.US_ASCII), 0);
+        start = start < 0 ? -1 : indexOf(body, "\r\n\r\n".getBytes(StandardCharsets.US_ASCII), start);
+        if (start < 0) {
+            throw new IOException("no application part");
+        }
+        start += 4;
+        int end = lastIndexOf(body, "\r\n--".getBytes(StandardCharsets.US_ASCII), body.length);
+        if (end < start) {
+            throw new IOException("application part not closed");
+        }
+        ByteBuffer zip = ByteBuffer.wrap(body, start, end - start).slice().order(ByteOrder.LITTLE_ENDIAN);
+        int read = 0;
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(body, start, end - start))) {
+            byte[] buffer = new byte[8192];
+            while (in.getNextEntry() != null) {
+                while (in.read(buffer) >= 0) {
+                    // crc is checked at the end of each entry
+                }
+                read++;
+            }
+        }
+        int endRecord = zip.limit() - 22;
+        if (endRecord < 0 || zip.getInt(endRecord) != 0x06054b50) {
+            throw new IOException("no zip end record");
+        }
+        int count = zip.getShort(endRecord + 10) & 0xFFFF;
+        int central = zip.getInt(endRecord + 16);
+        for (int i = 0; i < count; i++) {
+            if (zip.getInt(central) != 0x02014b50 || zip.getInt(zip.getInt(central + 42)) != 0x04034b50) {
+                throw new IOException("central directory entry " + i + " doesn't point at an entry");
+            }
+            central += 46 + (zip.getShort(central + 28) & 0xFFFF) + (zip.getShort(central + 30) & 0xFFFF)
+                    + (zip.getShort(central + 32) & 0xFFFF);
+        }
+        if (count != read) {
+            throw new IOException(read + " entries but " + count + " in the central directory");
+        }
+        return read;
+    }
+
+    private static int indexOf(byte[] bytes, byte[] part, int from) {
+        for (int i = from; i <= bytes.length - part.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + part.length), part)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(byte[] bytes, byte[] part, int before) {
+        for (int i = before - part.length; i >= 0; i--) {
+            if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + part.length), part)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private Map<String, Object> job(String id) {
+        return entity("metadata", entity("guid", id, "url", "/v2/jobs/" + id, "created_at", Instant.now().toString()),
+                "entity", entity("guid", id, "status", "finished"));
+    }
+
+    private Reply instances(String appId) {
+        Resource app = find("apps", appId);
+        if (app == null) {
+            return Reply.notFound("/v2/apps/" + appId);
+        }
+        Map<String, Object> instances = new LinkedHashMap<>();
+        int count = ((Number) app.entity.getOrDefault("instances", 1)).intValue();
+        String state = "STAGED".equals(packageState(app)) ? "RUNNING" : "STARTING";
+        for (int i = 0; i < count; i++) {
+            instances.put(Integer.toString(i), entity("state", state, "since", Instant.now().getEpochSecond()));
+        }
+        return Reply.ok(instances);
+    }
+
+    // what the operations api lists apps and service instances from
+    private Reply summary(String spaceId) {
+        Resource space = find("spaces", spaceId);
+        if (space == null) {
+            return Reply.notFound("/v2/spaces/" + spaceId);
+        }
+        List<Map<String, Object>> apps = new ArrayList<>();
+        for (Resource app : scoped("apps", resource -> spaceId.equals(resource.entity.get("space_guid")))) {
+            Map<String, Object> summary = view("apps", app);
+            summary.put("guid", app.guid);
+            summary.put("running_instances", "STAGED".equals(summary.get("package_state"))
+                    && "STARTED".equals(summary.get("state")) ? summary.get("instances") : 0);
+            summary.put("urls", scoped("routes", route -> routeApps.getOrDefault(route.guid, Collections.emptySet())
+                    .contains(app.guid)).stream()
+                    .map(route -> route.entity.get("host") + "." + domainName(route.entity.get("domain_guid")))
+                    .collect(Collectors.toList()));
+            summary.put("service_names", scoped("service_bindings", binding -> app.guid.equals(
+                    binding.entity.get("app_guid"))).stream()
+                    .map(binding -> find("service_instances", (String) binding.entity.get("service_instance_guid")))
+                    .filter(Objects::nonNull)
+                    .map(instance -> instance.entity.get("name"))
+                    .collect(Collectors.toList()));
+            apps.add(summary);
+        }
+        List<Map<String, Object>> services = new ArrayList<>();
+        for (Resource instance : scoped("service_instances", resource -> spaceId.equals(resource.entity.get("space_guid")))) {
+            long bound = scoped("service_bindings", binding -> instance.guid.equals(
+                    binding.entity.get("service_instance_guid"))).size();
+            services.add(entity("guid", instance.guid, "name", instance.entity.get("name"), "bound_app_count", bound,
+                    "service_plan", entity("guid", instance.guid, "name", "standard",
+                            "service", entity("guid", instance.guid, "label", instance.entity.get("name"),
+                                    "provider", null, "version", null))));
+        }
+        return Reply.ok(entity("guid", spaceId, "name", space.entity.get("name"), "apps", apps,
+                "services", services));
+    }
+
+    private List<Resource> scoped(String type, Predicate<Resource> scope) {
+        return resources.getOrDefault(type, Collections.emptyMap()).values().stream()
+                .sorted(Comparator.comparingLong(resource -> resource.sequence))
+                .filter(scope)
+                .collect(Collectors.toList());
+    }
+
+    private String domainName(Object domainId) {
+        Resource domain = find("shared_domains", String.valueOf(domainId));
+        if (domain == null) {
+            domain = find("private_domains", String.valueOf(domainId));
+        }
+        return domain == null ? "" : String.valueOf(domain.entity.get("name"));
+    }
+
+    private Reply associate(String method, String type, String id, String child, String childId) {
+        String routeId;
+        String appId;
+        if (type.equals("apps") && child.equals("routes")) {
+            appId = id;
+            routeId = childId;
+        } else if (type.equals("routes") && child.equals("apps")) {
+            appId = childId;
+            routeId = id;
+        } else if (type.equals("apps") && child.equals("service_bindings") && method.equals("DELETE")) {
+            return delete("service_bindings", childId, Collections.emptyMap());
+        } else {
+            return Reply.notFound("/v2/" + type + "/" + id + "/" + child);
+        }
+        if (find("apps", appId) == null || find("routes", routeId) == null) {
+            return Reply.notFound("/v2/" + type + "/" + id);
+        }
+        if (method.equals("PUT")) {
+            routeApps.computeIfAbsent(routeId, key -> ConcurrentHashMap.newKeySet()).add(appId);
+            return Reply.of(201, render(type, find(type, id)));
+        }
+        routeApps.getOrDefault(routeId, Collections.emptySet()).remove(appId);
+        return Reply.of(204, null);
+    }
+
+    private Predicate<Resource> nested(String parentType, String parentId, String childType) {
+        if (parentType.equals("apps") && childType.equals("routes")) {
+            return route -> routeApps.getOrDefault(route.guid, Collections.emptySet()).contains(parentId);
+        }
+        if (parentType.equals("routes") && childType.equals("apps")) {
+            return app -> routeApps.getOrDefault(parentId, Collections.emptySet()).contains(app.guid);
+        }
+        String field = childType.equals("private_domains") ? "owning_organization_guid"
+                : parentType.replaceAll("s$", "") + "_guid";
+        return resource -> parentId.equals(resource.entity.get(field));
+    }
+
+    private Reply list(String type, Predicate<Resource> scope, Map<String, List<String>> query) {
+        List<Resource> matched = scoped(type, scope).stream()
+                .filter(resource -> query.getOrDefault("q", Collections.emptyList()).stream()
+                        .allMatch(filter -> matches(type, resource, filter)))
+                .collect(Collectors.toList());
+        if ("desc".equals(first(query, "order-direction"))) {
+            Collections.reverse(matched);
+        }
+        int perPage = Integer.parseInt(first(query, "results-per-page", Integer.toString(RESULTS_PER_PAGE)));
+        int page = Integer.parseInt(first(query, "page", "1"));
+        int pages = Math.max(1, (matched.size() + perPage - 1) / perPage);
+        List<Map<String, Object>> rendered = matched.stream()
+                .skip((long) (page - 1) * perPage)
+                .limit(perPage)
+                .map(resource -> render(type, resource))
+                .collect(Collectors.toList());
+        return Reply.ok(entity("total_results", matched.size(), "total_pages", pages,
+                "prev_url", page > 1 ? "/v2/" + type + "?page=" + (page - 1) : null,
+                "next_url", page < pages ? "/v2/" + type + "?page=" + (page + 1) : null,
+                "resources", rendered));
+    }
+
+    // q=field:value, field IN a,b and >, >=, <, <= comparisons, the forms the v2 api accepts
+    private boolean matches(String type, Resource resource, String filter) {
+        Map<String, Object> entity = view(type, resource);
+        for (String operator : new String[]{" IN ", ">=", "<=", ">", "<", ":"}) {
+            int at = filter.indexOf(operator);
+            if (at < 0) {
+                continue;
+            }
+            String field = filter.substring(0, at);
+            String value = filter.substring(at + operator.length());
+            Object actual = entity.get(field);
+            String text = actual == null ? "" : String.valueOf(actual);
+            switch (operator) {
+                case " IN ":
+                    return Arrays.asList(value.split(",")).contains(text);
+                case ">=":
+                    return text.compareTo(value) >= 0;
+                case "<=":
+                    return text.compareTo(value) <= 0;
+                case ">":
+                    return text.compareTo(value) > 0;
+                case "<":
+                    return text.compareTo(value) < 0;
+                default:
+                    return text.equals(value);
+            }
+        }
+        return true;
+    }
+
+    private Reply get(String type, String id) {
+        Resource resource = find(type, id);
+        return resource == null ? Reply.notFound("/v2/" + type + "/" + id) : Reply.ok(render(type, resource));
+    }
+
+    private Reply update(String type, String id, Map<String, Object> changes) {
+        Resource resource = find(type, id);
+        if (resource == null) {
+            return Reply.notFound("/v2/" + type + "/" + id);
+        }
+        synchronized (resource) {
+            if (type.equals("apps") && "STARTED".equals(changes.get("state"))
+                    && !"STARTED".equals(resource.entity.get("state"))) {
+                resource.startedAt = Instant.now();
+            }
+            resource.entity.putAll(changes);
+            resource.updatedAt = Instant.now();
+        }
+        Object state = changes.get("state");
+        audit(type, resource, "STARTED".equals(state) ? "start" : "STOPPED".equals(state) ? "stop" : "update");
+        return Reply.of(201, render(type, resource));
+    }
+
+    private Reply delete(String type, String id, Map<String, List<String>> query) {
+        Resource removed = resources.getOrDefault(type, Collections.emptyMap()).remove(id);
+        if (removed == null) {
+            return Reply.notFound("/v2/" + type + "/" + id);
+        }
+        if (type.equals("routes")) {
+            routeApps.remove(id);
+        }
+        if (type.equals("apps")) {
+            routeApps.values().forEach(apps -> apps.remove(id));
+        }
+        audit(type, removed, "delete-request");
+        if ("true".equals(first(query, "async"))) {
+            return Reply.of(202, job(UUID.randomUUID().toString()));
+        }
+        return Reply.of(204, null);
+    }
+
+    // id=<app guids> lists the policies from or to any of them, creating a policy that exists changes nothing
+    @SuppressWarnings("unchecked")
+    private Reply policies(String method, String path, Map<String, List<String>> query, byte[] body)
+            throws IOException {
+        if (method.equals("GET")) {
+            String ids = first(query, "id");
+            List<Map<String, Object>> listed;
+            synchronized (policies) {
+                listed = policies.stream()
+                        .filter(policy -> ids == null || Arrays.asList(ids.split(",")).stream()
+                                .anyMatch(id -> id.equals(((Map<String, Object>) policy.get("source")).get("id"))
+                                        || id.equals(((Map<String, Object>) policy.get("destination")).get("id"))))
+                        .collect(Collectors.toList());
+            }
+            return Reply.ok(entity("total_policies", listed.size(), "policies", listed));
+        }
+        List<Map<String, Object>> changed = (List<Map<String, Object>>) parse(body).get("policies");
+        synchronized (policies) {
+            if (path.endsWith("/delete")) {
+                policies.removeAll(changed);
+            } else {
+                changed.stream().filter(policy -> !policies.contains(policy)).forEach(policies::add);
+            }
+        }
+        // no body, the client reads these as Mono<Void>
+        return Reply.of(200, null);
+    }
+
+    private String create(String type, Map<String, Object> entity) {
+        String guid = UUID.randomUUID().toString();
+        if (type.equals("apps")) {
+            entity.putIfAbsent("state", "STOPPED");
+            entity.putIfAbsent("instances", 1);
+            entity.putIfAbsent("memory", 1024);
+            entity.putIfAbsent("disk_quota", 1024);
+            entity.putIfAbsent("environment_json", new HashMap<>());
+            entity.putIfAbsent("diego", true);
+        }
+        if (type.equals("routes")) {
+            entity.putIfAbsent("host", "");
+            entity.putIfAbsent("path", "");
+        }
+        resources.computeIfAbsent(type, key -> new ConcurrentHashMap<>())
+                .put(guid, new Resource(guid, entity, sequence.incrementAndGet()));
+        return guid;
+    }
+
+    // app changes leave audit events like the cloud controller, timestamps at second precision
+    private void audit(String type, Resource resource, String action) {
+        if (!type.equals("apps")) {
+            return;
+        }
+        create("events", entity("type", "audit.app." + action, "actee", resource.guid, "actee_type", "app",
+                "actee_name", resource.entity.get("name"), "space_guid", resource.entity.get("space_guid"),
+                "organization_guid", organizationId, "actor", "todos", "actor_type", "user",
+                "timestamp", TIMESTAMP.format(Instant.now())));
+    }
+
+    private Resource find(String type, String id) {
+        return resources.getOrDefault(type, Collections.emptyMap()).get(id);
+    }
+
+    private Map<String, Object> render(String type, Resource resource) {
+        Map<String, Object> metadata = entity("guid", resource.guid, "url", "/v2/" + type + "/" + resource.guid,
+                "created_at", resource.createdAt.toString(), "updated_at", resource.updatedAt.toString());
+        return entity("metadata", metadata, "entity", view(type, resource));
+    }
+
+    private Map<String, Object> view(String type, Resource resource) {
+        Map<String, Object> entity;
+        synchronized (resource) {
+            entity = new LinkedHashMap<>(resource.entity);
+        }
+        if (type.equals("apps")) {
+            entity.put("package_state", packageState(resource));
+        }
+        return entity;
+    }
+
+    private String packageState(Resource app) {
+        Instant startedAt = app.startedAt;
+        if (startedAt == null) {
+            return "PENDING";
+        }
+        return Instant.now().isBefore(startedAt.plus(staging)) ? "PENDING" : "STAGED";
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> parse(byte[] body) throws IOException {
+        if (body.length == 0) {
+            return new LinkedHashMap<>();
+        }
+        return mapper.readValue(body, LinkedHashMap.class);
+    }
+
+    private byte[] read(InputStream in, long bytesPerSecond) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        long start = System.nanoTime();
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            if (bytesPerSecond > 0) {
+                long due = out.size() * 1_000_000_000L / bytesPerSecond;
+                long ahead = due - (System.nanoTime() - start);
+                if (ahead > 0) {
+                    sleep(Duration.ofNanos(ahead));
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    // before the response goes out, so a caller that sends its next call on the answer isn't counted twice
+    private void answered(HttpExchange exchange) {
+        if (answering.remove(exchange)) {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private void respond(HttpExchange exchange, int status, Object body) throws IOException {
+        answered(exchange);
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = mapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static Map<String, Object> error(int code, String errorCode, String description) {
+        return entity("code", code, "error_code", errorCode, "description", description);
+    }
+
+    private static Map<String, List<String>> query(String raw) {
+        Map<String, List<String>> query = new HashMap<>();
+        if (raw == null) {
+            return query;
+        }
+        for (String pair : raw.split("&")) {
+            int at = pair.indexOf('=');
+            String key = decode(at < 0 ? pair : pair.substring(0, at));
+            String value = at < 0 ? "" : decode(pair.substring(at + 1));
+            query.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+        }
+        return query;
+    }
+
+    private static String first(Map<String, List<String>> query, String key) {
+        return first(query, key, null);
+    }
+
+    private static String first(Map<String, List<String>> query, String key, String defaultValue) {
+        List<String> values = query.get(key);
+        return values == null || values.isEmpty() ? defaultValue : values.get(0);
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Map<String, Object> entity(Object... keyValues) {
+        Map<String, Object> entity = new LinkedHashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            entity.put((String) keyValues[i], keyValues[i + 1]);
+        }
+        return entity;
+    }
+
+    private static void sleep(Duration duration) {
+        if (duration.isZero() || duration.isNegative()) {
+            return;
+        }
+        try {
+            Thread.sleep(duration.toMillis(), duration.getNano() % 1_000_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Resource {
+        private final String guid;
+        private final Map<String, Object> entity;
+        private final long sequence;
+        private final Instant createdAt = Instant.now();
+        private volatile Instant updatedAt = createdAt;
+        private volatile Instant startedAt;
+
+        private Resource(String guid, Map<String, Object> entity, long sequence) {
+            this.guid = guid;
+            this.entity = entity;
+            this.sequence = sequence;
+        }
+    }
+
+    private static class Failure {
+        private final double rate;
+        private final int status;
+
+        private Failure(double rate, int status) {
+            this.rate = rate;
+            this.status = status;
+        }
+    }
+
+    private static class Reply {
+        private final int status;
+        private final Object body;
+
+        private Reply(int status, Object body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        private static Reply of(int status, Object body) {
+            return new Reply(status, body);
+        }
+
+        private static Reply ok(Object body) {
+            return new Reply(200, body);
+        }
+
+        private static Reply notFound(String path) {
+            return new Reply(404, error(10000, "CF-NotFound", "Unknown request " + path));
+        }
+    }
+}
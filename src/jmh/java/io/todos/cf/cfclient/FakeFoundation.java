@@ -0,0 +1,139 @@
+package io.todos.cf.cfclient;
+
+import org.cloudfoundry.client.CloudFoundryClient;
+import org.cloudfoundry.networking.NetworkingClient;
+import org.cloudfoundry.operations.DefaultCloudFoundryOperations;
+import org.cloudfoundry.reactor.DefaultConnectionContext;
+import org.cloudfoundry.reactor.TokenProvider;
+import org.cloudfoundry.reactor.client.ReactorCloudFoundryClient;
+import org.cloudfoundry.reactor.doppler.ReactorDopplerClient;
+import org.cloudfoundry.reactor.networking.ReactorNetworkingClient;
+import reactor.ipc.netty.resources.LoopResources;
+import reactor.ipc.netty.resources.PoolResources;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+// the client graph Context builds, wired by hand against a FakeCloudController
+// along with generated todos jars for every role
+public class FakeFoundation implements AutoCloseable {
+
+    public static final String VERSION = "1.0.0.SNAP";
+    public static final List<String> ROLES = Arrays.asList("api", "webui", "edge", "mysql", "redis", "app");
+
+    private final FakeCloudController cloudController;
+    private final Path folder;
+    private final LoopResources connectionThreads = LoopResources.create("fake-foundation");
+    private final ConnectionPool connectionPool = new ConnectionPool("fake-foundation",
+            PoolResources.DEFAULT_POOL_MAX_CONNECTION, 45000);
+    private final Resilience resilience = new Resilience(FakeCloudController.class.getSimpleName(),
+            new CfProperties.ResilienceProperties());
+    private final DefaultConnectionContext connectionContext;
+    private final Metrics metrics = new Metrics();
+    private final CloudFoundryClient client;
+    private final Targets targets;
+    private final ApplicationBits bits;
+    private final StreamingUpload streaming;
+    private final TopologyExecutor executor;
+    private final Topologies topologies = new Topologies();
+    // the defaults, on the fake's plain http port with a token file of its own
+    private final CfProperties properties = new CfProperties();
+
+    // libraries and classes size the generated jars, see JarFingerprinterBenchmark.generate
+    public FakeFoundation(FakeCloudController cloudController, int libraries, int classes) throws IOException {
+        this.cloudController = cloudController;
+        this.folder = Files.createTempDirectory("todos-fake-foundation-");
+        Path jars = Files.createDirectories(folder.resolve("jars"));
+        for (String role : ROLES) {
+            JarFingerprinterBenchmark.generate(jars.resolve("todos-" + role + "-" + VERSION + ".jar"),
+                    libraries, classes);
+        }
+
+        resilience.register(metrics, "resilience");
+        properties.setApi(cloudController.getHost());
+        properties.setPort(cloudController.getPort());
+        properties.setSecure(false);
+        properties.setUsername("todos");
+        properties.setPassword("todos");
+        properties.setTokens(folder.resolve("tokens.json").toString());
+        connectionContext = Context.connect(properties, connectionThreads, connectionPool, resilience);
+        TokenProvider tokenProvider = Context.tokens(properties);
+        NetworkingClient networkingClient = Instrumented.instrument(NetworkingClient.class,
+                ReactorNetworkingClient.builder()
+                        .connectionContext(connectionContext)
+                        .tokenProvider(tokenProvider)
+                        .build(), metrics, resilience);
+        client = Instrumented.instrument(CloudFoundryClient.class, ReactorCloudFoundryClient.builder()
+                .connectionContext(connectionContext)
+                .tokenProvider(tokenProvider)
+                .build(), metrics, resilience);
+        targets = new Targets(client, networkingClient, FakeCloudController.ORGANIZATION, FakeCloudController.SPACE);
+
+        ResourceCache resourceCache = new ResourceCache(new JarFingerprinter(0));
+        resourceCache.cacheFolder = folder.resolve("resource-cache").toString();
+        bits = new ApplicationBits(resourceCache, metrics);
+        streaming = new StreamingUpload(connectionContext, tokenProvider, resilience);
+        executor = new TopologyExecutor(targets, client, bits, streaming, metrics,
+                new Ledger(folder.resolve("ledger.json"), cloudController.getHost()),
+                ReactorDopplerClient.builder()
+                        .connectionContext(connectionContext)
+                        .tokenProvider(tokenProvider)
+                        .build(), properties);
+        topologies.jarsFolder = jars.toString();
+        topologies.cfApi = cloudController.getHost();
+        topologies.cfDomain = FakeCloudController.DOMAIN;
+    }
+
+    public FakeCloudController getCloudController() {
+        return cloudController;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public CloudFoundryClient getClient() {
+        return client;
+    }
+
+    public DefaultCloudFoundryOperations getOperations() {
+        return targets.current();
+    }
+
+    public ApplicationBits getBits() {
+        return bits;
+    }
+
+    public StreamingUpload getStreaming() {
+        return streaming;
+    }
+
+    public TopologyExecutor getExecutor() {
+        return executor;
+    }
+
+    public Topologies getTopologies() {
+        return topologies;
+    }
+
+    @Override
+    public void close() throws IOException {
+        connectionContext.dispose();
+        connectionPool.dispose();
+        connectionThreads.dispose();
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted((a, b) -> b.compareTo(a)).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+}
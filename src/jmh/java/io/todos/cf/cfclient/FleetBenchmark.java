@@ -0,0 +1,92 @@
+package io.todos.cf.cfclient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// a fleet of tagged stacks through Fleet.push against the fake cloud controller, reporting the most
+// cloud controller calls it had in flight at once, which maxCalls caps, and the calls of the last push by
+// endpoint, e.g. how many apps got their bits by upload and how many by copy.
+// ./mvnw -Pbenchmarks test-compile exec:exec -Djmh.args="FleetBenchmark -p maxCalls=8"
+// ./mvnw -Pbenchmarks test-compile exec:exec -Djmh.args="FleetBenchmark -p fleet=20 -p stacks=20 -p maxCalls=64"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class FleetBenchmark {
+
+    @Param("12")
+    int fleet;
+
+    @Param("4")
+    int stacks;
+
+    @Param({"4", "16", "64"})
+    int maxCalls;
+
+    @Param("20")
+    int latencyMs;
+
+    private FakeCloudController cloudController;
+    private FakeFoundation foundation;
+    private Fleet pipeline;
+    private int run;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        cloudController = new FakeCloudController()
+                .latency(Duration.ofMillis(latencyMs))
+                .start();
+        foundation = new FakeFoundation(cloudController, 5, 200);
+        pipeline = new Fleet(foundation.getExecutor(), foundation.getBits());
+    }
+
+    @Setup(Level.Iteration)
+    public void clean() {
+        cloudController.resetApps();
+        cloudController.resetCalls();
+    }
+
+    @TearDown(Level.Iteration)
+    public void count() {
+        System.out.print(String.format(" %d api calls, at most %d in flight ",
+                cloudController.totalCalls(), cloudController.peakInFlight()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.out.println();
+        cloudController.calls().forEach((endpoint, count) ->
+                System.out.println(String.format("  %-48s %6d", endpoint, count)));
+        foundation.close();
+        cloudController.close();
+    }
+
+    @Benchmark
+    public void push() {
+        List<Topology> topologies = new ArrayList<>();
+        for (int stack = 0; stack < fleet; stack++) {
+            topologies.add(foundation.getTopologies().app("fleet" + run + "-" + stack, FakeFoundation.VERSION));
+        }
+        run++;
+        pipeline.push(topologies, stacks, maxCalls, StepListener.NONE).block();
+    }
+}
@@ -0,0 +1,118 @@
+package io.todos.cf.cfclient;
+
+import org.cloudfoundry.util.ResourceMatchingUtils.ArtifactMetadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+// sequential stream-per-entry hashing (what the cf client does) against the mapped fork-join fingerprinter
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JarFingerprinterBenchmark {
+
+    // path to a real fat jar, a ~60 MB spring-boot style jar is generated when empty
+    @Param("")
+    String jar;
+
+    private Path path;
+    private boolean generated;
+    private JarFingerprinter fingerprinter;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        if (jar.isEmpty()) {
+            path = Files.createTempFile("todos-bench-", ".jar");
+            generated = true;
+            generate(path, 60, 1000);
+        } else {
+            path = Paths.get(jar);
+        }
+        fingerprinter = new JarFingerprinter(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (generated) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Benchmark
+    public List<ArtifactMetadata> sequential() {
+        return JarFingerprinter.sequential(path);
+    }
+
+    @Benchmark
+    public List<ArtifactMetadata> mapped() {
+        return fingerprinter.hash(path);
+    }
+
+    // stored nested library jars of about 1 MB each plus deflated application classes, like a boot jar
+    static void generate(Path target, int libraries, int classes) throws IOException {
+        Random random = new Random(42);
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(target))) {
+            for (int i = 0; i < classes; i++) {
+                out.putNextEntry(new ZipEntry("BOOT-INF/classes/io/todos/Generated" + i + ".class"));
+                out.write(content(random, 4 * 1024));
+                out.closeEntry();
+            }
+            for (int i = 0; i < libraries; i++) {
+                ByteArrayOutputStream library = new ByteArrayOutputStream();
+                try (ZipOutputStream nested = new ZipOutputStream(library)) {
+                    for (int j = 0; j < 200; j++) {
+                        nested.putNextEntry(new ZipEntry("lib" + i + "/Class" + j + ".class"));
+                        nested.write(content(random, 8 * 1024));
+                        nested.closeEntry();
+                    }
+                }
+                byte[] bytes = library.toByteArray();
+                ZipEntry entry = new ZipEntry("BOOT-INF/lib/library-" + i + ".jar");
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(bytes.length);
+                entry.setCompressedSize(bytes.length);
+                entry.setCrc(crc.getValue());
+                out.putNextEntry(entry);
+                out.write(bytes);
+                out.closeEntry();
+            }
+        }
+    }
+
+    // half random, half repetitive so it deflates roughly like bytecode
+    private static byte[] content(Random random, int size) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        for (int i = 0; i < size; i += 2) {
+            bytes[i] = (byte) (i % 64);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,129 @@
+package io.todos.cf.cfclient;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// launches the shell in a new jvm that runs one command and exits, timing it end to end. help and jars
+// never touch the foundation so they track time to prompt, orgs and apps time to first remote command
+// against the fake cloud controller, with the token stored by the warmup run. launch=jar and jar-cds run
+// the thin jar from ./mvnw -Pcds package in its own folder, the latter with its class data sharing archive.
+// ./mvnw -Pbenchmarks test-compile exec:exec -Djmh.args="StartupBenchmark -p launch=classpath"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StartupBenchmark {
+
+    @Param({"help", "jars", "orgs", "apps"})
+    String command;
+
+    @Param({"classpath", "jar", "jar-cds"})
+    String launch;
+
+    // the thin jar, its archive is next to it as todos-cfclient.jsa
+    @Param("target/todos-cfclient-1.0.0.SNAP.jar")
+    String jar;
+
+    @Param("20")
+    int latencyMs;
+
+    private FakeCloudController cloudController;
+    private Path folder;
+    private Path script;
+    private Path log;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        cloudController = new FakeCloudController()
+                .latency(Duration.ofMillis(latencyMs))
+                .start();
+        folder = Files.createTempDirectory("todos-startup-");
+        Files.createFile(folder.resolve("todos-api-" + FakeFoundation.VERSION + ".jar"));
+        script = Files.write(folder.resolve("command.script"), (command + "\n").getBytes(StandardCharsets.UTF_8));
+        log = folder.resolve("shell.log");
+    }
+
+    @Benchmark
+    public int launch() throws IOException, InterruptedException {
+        ProcessBuilder builder = new ProcessBuilder(commandLine());
+        if (!"classpath".equals(launch)) {
+            // the archive only maps when the jar's classpath resolves as it did when it was dumped
+            builder.directory(Paths.get(jar).toAbsolutePath().getParent().toFile());
+        }
+        Process shell = builder
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+        int exit = shell.waitFor();
+        if (exit != 0) {
+            throw new IllegalStateException("shell exited with " + exit + ":\n"
+                    + new String(Files.readAllBytes(log), StandardCharsets.UTF_8));
+        }
+        return exit;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        cloudController.close();
+        for (File file : folder.toFile().listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(folder);
+    }
+
+    private List<String> commandLine() {
+        List<String> commandLine = new ArrayList<>();
+        commandLine.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        switch (launch) {
+            case "classpath":
+                commandLine.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"),
+                        CfClientApplication.class.getName()));
+                break;
+            case "jar-cds":
+                commandLine.add("-XX:SharedArchiveFile=todos-cfclient.jsa");
+                commandLine.addAll(Arrays.asList("-jar", Paths.get(jar).getFileName().toString()));
+                break;
+            case "jar":
+                commandLine.addAll(Arrays.asList("-jar", Paths.get(jar).getFileName().toString()));
+                break;
+            default:
+                throw new IllegalArgumentException("unknown launch " + launch);
+        }
+        commandLine.addAll(Arrays.asList("@" + script,
+                "--jars.folder=" + folder,
+                "--cf.api=" + cloudController.getHost(),
+                "--cf.port=" + cloudController.getPort(),
+                "--cf.secure=false",
+                "--cf.tokens=" + folder.resolve("tokens.json"),
+                "--cf.organization=" + FakeCloudController.ORGANIZATION,
+                "--cf.space=" + FakeCloudController.SPACE,
+                "--spring.main.banner-mode=off",
+                "--logging.level.root=WARN"));
+        return commandLine;
+    }
+}
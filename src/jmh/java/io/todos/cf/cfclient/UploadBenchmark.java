@@ -0,0 +1,98 @@
+package io.todos.cf.cfclient;
+
+import org.cloudfoundry.client.v2.applications.CreateApplicationRequest;
+import org.cloudfoundry.util.ResourceMatchingUtils.ArtifactMetadata;
+import org.cloudfoundry.util.ResourceUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+// uploads of a boot jar whose libraries the platform already has, so only the application classes go up:
+// compressed into a temp zip first (what the cf client does) against streamed from the jar as they are.
+// run with -prof gc for the allocations per upload
+// ./mvnw -Pbenchmarks test-compile exec:exec -Djmh.args="UploadBenchmark -prof gc"
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UploadBenchmark {
+
+    @Param({"compress", "stream"})
+    String residual;
+
+    // nested library jars of about 1 MB each
+    @Param("20")
+    int libraries;
+
+    // 4 KB application classes, the part that is uploaded
+    @Param("2000")
+    int classes;
+
+    private FakeCloudController cloudController;
+    private FakeFoundation foundation;
+    private Path jar;
+    private String applicationId;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        cloudController = new FakeCloudController().start();
+        foundation = new FakeFoundation(cloudController, libraries, classes);
+        jar = foundation.getTopologies().app("upload", FakeFoundation.VERSION).getApps().get(0).getJar();
+        List<ArtifactMetadata> fingerprints = new JarFingerprinter(0).fingerprints(jar);
+        cloudController.knownResources(fingerprints.stream()
+                .filter(fingerprint -> fingerprint.getPath().startsWith("BOOT-INF/lib/"))
+                .map(ArtifactMetadata::getHash)
+                .collect(Collectors.toList()));
+        applicationId = foundation.getOperations().getSpaceId()
+                .flatMap(spaceId -> foundation.getClient().applicationsV2()
+                        .create(CreateApplicationRequest.builder()
+                                .name("upload")
+                                .spaceId(spaceId)
+                                .build()))
+                .map(ResourceUtils::getId)
+                .block();
+    }
+
+    @Setup(Level.Iteration)
+    public void clean() {
+        cloudController.resetCalls();
+    }
+
+    @TearDown(Level.Iteration)
+    public void count() {
+        System.out.print(String.format(" %d uploads of %d entries, %d bytes sent ",
+                cloudController.calls().getOrDefault("PUT /v2/apps/*/bits", 0L),
+                cloudController.uploadedEntries(), cloudController.uploadedBytes()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.out.println();
+        foundation.close();
+        cloudController.close();
+    }
+
+    @Benchmark
+    public void upload() {
+        foundation.getBits().upload(foundation.getClient(),
+                residual.equals("stream") ? foundation.getStreaming() : null, applicationId, jar).block();
+    }
+}
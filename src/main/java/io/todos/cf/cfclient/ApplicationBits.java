@@ -0,0 +1,231 @@
+package io.todos.cf.cfclient;
+
+import org.cloudfoundry.client.CloudFoundryClient;
+import org.cloudfoundry.client.v2.applications.CopyApplicationRequest;
+import org.cloudfoundry.client.v2.applications.Resource;
+import org.cloudfoundry.client.v2.applications.UploadApplicationRequest;
+import org.cloudfoundry.client.v2.applications.UploadApplicationResponse;
+import org.cloudfoundry.client.v2.resourcematch.ListMatchingResourcesRequest;
+import org.cloudfoundry.client.v2.resourcematch.ListMatchingResourcesResponse;
+import org.cloudfoundry.util.FileUtils;
+import org.cloudfoundry.util.JobUtils;
+import org.cloudfoundry.util.ResourceMatchingUtils.ArtifactMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+// uploads application bits, sending only the jar entries the cloud controller doesn't already have.
+// within a run a jar goes up once per foundation, other apps with it get the package copied from the first one
+@Component
+public class ApplicationBits {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ApplicationBits.class);
+
+    // the async upload and copy_bits jobs, staging is bounded by the start step
+    private static final Duration UPLOAD_JOB_TIMEOUT = Duration.ofMinutes(15);
+
+    private ResourceCache resourceCache;
+
+    private Metrics metrics;
+
+    // subscriber context key of the app each jar digest was uploaded to in a run, per cf client, see share
+    private static final String PACKAGES = ApplicationBits.class.getName() + ".packages";
+
+    public ApplicationBits(@Autowired ResourceCache resourceCache,
+                           @Autowired Metrics metrics) {
+        this.resourceCache = resourceCache;
+        this.metrics = metrics;
+    }
+
+    // the uploads of a run, e.g. a deploy or a whole fleet, copy each other's bits. the next run uploads again,
+    // the app it would copy from may have been given other bits in between
+    public <T> Mono<T> share(Mono<T> run) {
+        return run.subscriberContext(context -> context.hasKey(PACKAGES) ? context
+                : context.put(PACKAGES, new ConcurrentHashMap<List<Object>, Package>()));
+    }
+
+    // apps of a run with the same jar wait for the first upload and copy it. a failed copy, e.g.
+    // because that app was deleted since, falls back to an upload that later apps copy instead
+    public Mono<Void> upload(CloudFoundryClient client, StreamingUpload streaming, String applicationId, Path jar) {
+        return Mono.subscriberContext().flatMap(context -> fingerprints(jar).flatMap(fingerprints -> {
+            Map<List<Object>, Package> packages = context.getOrDefault(PACKAGES, null);
+            if (packages == null) {
+                return uploadBits(client, streaming, applicationId, jar, fingerprints);
+            }
+            List<Object> key = Arrays.asList(client, digest(fingerprints));
+            // an app getting new bits is no longer a source for its old ones
+            packages.values().removeIf(source -> source.applicationId.equals(applicationId));
+            Package uploading = new Package(applicationId,
+                    uploadBits(client, streaming, applicationId, jar, fingerprints));
+            Package source = packages.putIfAbsent(key, uploading);
+            if (source == null) {
+                return uploading.bits.doOnError(e -> packages.remove(key, uploading));
+            }
+            return source.bits
+                    .then(copy(client, source.applicationId, applicationId))
+                    .onErrorResume(e -> {
+                        LOGGER.debug("copying {} from app {} failed, uploading it: {}", jar.getFileName(),
+                                source.applicationId, e.getMessage());
+                        packages.replace(key, source, uploading);
+                        return uploading.bits.doOnError(failed -> packages.remove(key, uploading));
+                    });
+        }));
+    }
+
+    private Mono<Void> uploadBits(CloudFoundryClient client, StreamingUpload streaming, String applicationId,
+                                  Path jar, List<ArtifactMetadata> fingerprints) {
+        return matched(client, fingerprints)
+                .flatMap(matched -> upload(client, streaming, applicationId, jar, matched));
+    }
+
+    // sha1 over the sorted entry fingerprints, the same for a rebuilt jar with the same contents
+    public Mono<String> digest(Path jar) {
+        return fingerprints(jar).map(ApplicationBits::digest);
+    }
+
+    private Mono<List<ArtifactMetadata>> fingerprints(Path jar) {
+        return metrics.time("bits.fingerprint", Mono.fromCallable(() -> resourceCache.fingerprints(jar))
+                .subscribeOn(Schedulers.elastic()));
+    }
+
+    private static String digest(List<ArtifactMetadata> fingerprints) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        fingerprints.stream()
+                .map(fingerprint -> fingerprint.getPath() + ":" + fingerprint.getHash() + "\n")
+                .sorted()
+                .forEach(line -> digest.update(line.getBytes(StandardCharsets.UTF_8)));
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private Mono<Void> copy(CloudFoundryClient client, String sourceApplicationId, String applicationId) {
+        return metrics.time("bits.copy", client.applicationsV2()
+                .copy(CopyApplicationRequest.builder()
+                        .applicationId(applicationId)
+                        .sourceApplicationId(sourceApplicationId)
+                        .build())
+                .flatMap(job -> JobUtils.waitForCompletion(client, UPLOAD_JOB_TIMEOUT, job)));
+    }
+
+    private static Mono<List<ArtifactMetadata>> matched(CloudFoundryClient client, List<ArtifactMetadata> fingerprints) {
+        Map<String, ArtifactMetadata> byHash = new HashMap<>();
+        for (ArtifactMetadata fingerprint : fingerprints) {
+            byHash.put(fingerprint.getHash(), fingerprint);
+        }
+        return client.resourceMatch()
+                .list(ListMatchingResourcesRequest.builder()
+                        .resources(byHash.values().stream()
+                                .map(fingerprint -> org.cloudfoundry.client.v2.resourcematch.Resource.builder()
+                                        .hash(fingerprint.getHash())
+                                        .mode(fingerprint.getPermissions())
+                                        .size(fingerprint.getSize())
+                                        .build())
+                                .collect(Collectors.toList()))
+                        .build())
+                .map(ListMatchingResourcesResponse::getResources)
+                .map(resources -> {
+                    Set<String> hashes = resources.stream()
+                            .map(org.cloudfoundry.client.v2.resourcematch.Resource::getHash)
+                            .collect(Collectors.toSet());
+                    return fingerprints.stream()
+                            .filter(fingerprint -> hashes.contains(fingerprint.getHash()))
+                            .collect(Collectors.toList());
+                });
+    }
+
+    // a jar the platform has nothing of goes as it is. otherwise the rest of it is streamed as a residual
+    // zip, or without a streaming upload (or when it fails) compressed into a temp file and uploaded
+    private Mono<Void> upload(CloudFoundryClient client, StreamingUpload streaming, String applicationId, Path jar,
+                              List<ArtifactMetadata> matched) {
+        LOGGER.debug("{} resources of {} already on the platform", matched.size(), jar.getFileName());
+        if (matched.isEmpty()) {
+            return requestUpload(client, applicationId, jar, matched);
+        }
+        Set<String> paths = matched.stream()
+                .map(ArtifactMetadata::getPath)
+                .collect(Collectors.toSet());
+        Mono<Void> compressed = metrics.time("bits.compress", FileUtils.compress(jar, path -> !paths.contains(path)))
+                .flatMap(residual -> requestUpload(client, applicationId, residual, matched)
+                        .doFinally(signal -> delete(residual)));
+        if (streaming == null) {
+            return compressed;
+        }
+        return metrics.time("bits.stream", Mono.fromCallable(() -> ResidualZip.of(jar, paths))
+                .subscribeOn(Schedulers.elastic())
+                .flatMap(residual -> streaming.upload(applicationId, residual, resources(matched))))
+                .onErrorResume(e -> {
+                    LOGGER.debug("streaming {} failed, uploading a compressed copy: {}", jar.getFileName(),
+                            e.getMessage());
+                    return compressed.then(Mono.<UploadApplicationResponse>empty());
+                })
+                .flatMap(job -> JobUtils.waitForCompletion(client, UPLOAD_JOB_TIMEOUT, job));
+    }
+
+    private static Mono<Void> requestUpload(CloudFoundryClient client, String applicationId, Path application,
+                                            List<ArtifactMetadata> matched) {
+        return client.applicationsV2()
+                .upload(UploadApplicationRequest.builder()
+                        .applicationId(applicationId)
+                        .application(application)
+                        .async(true)
+                        .resources(resources(matched))
+                        .build())
+                .flatMap(job -> JobUtils.waitForCompletion(client, UPLOAD_JOB_TIMEOUT, job));
+    }
+
+    private static List<Resource> resources(List<ArtifactMetadata> matched) {
+        return matched.stream()
+                .map(fingerprint -> Resource.builder()
+                        .hash(fingerprint.getHash())
+                        .mode(fingerprint.getPermissions())
+                        .path(fingerprint.getPath())
+                        .size(fingerprint.getSize())
+                        .build())
+                .collect(Collectors.toList());
+    }
+
+    private static class Package {
+        private final String applicationId;
+        private final Mono<Void> bits;
+
+        private Package(String applicationId, Mono<Void> bits) {
+            this.applicationId = applicationId;
+            this.bits = bits.cache();
+        }
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package io.todos.cf.cfclient;
+
+import org.cloudfoundry.client.CloudFoundryClient;
+import org.cloudfoundry.client.v2.ClientV2Exception;
+import org.cloudfoundry.client.v2.servicebindings.CreateServiceBindingRequest;
+import org.cloudfoundry.client.v2.spaces.ListSpaceServiceInstancesRequest;
+import org.cloudfoundry.util.ResourceUtils;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// the service bindings of one deploy. each instance name is looked up once and shared by every app that
+// binds it, binds go straight to the app id the create step got, and at most cf.bindConcurrency are in
+// flight, brokered services take seconds per bind and may not like many at once
+final class Bindings {
+
+    // cloud controller code when the app is bound already, e.g. a push over an existing stack
+    private static final int ALREADY_BOUND = 90003;
+
+    private final CloudFoundryClient client;
+    private final Mono<String> spaceId;
+    private final CallLimiter limiter;
+    private final Map<String, Mono<String>> serviceInstanceIds = new ConcurrentHashMap<>();
+
+    Bindings(CloudFoundryClient client, Mono<String> spaceId, int concurrency) {
+        this.client = client;
+        this.spaceId = spaceId;
+        this.limiter = new CallLimiter(concurrency);
+    }
+
+    Mono<Void> bind(String applicationId, String serviceInstance) {
+        return serviceInstanceId(serviceInstance)
+                .flatMap(serviceInstanceId -> limiter.limit(() -> client.serviceBindingsV2()
+                        .create(CreateServiceBindingRequest.builder()
+                                .applicationId(applicationId)
+                                .serviceInstanceId(serviceInstanceId)
+                                .build())
+                        .then()))
+                .onErrorResume(e -> e instanceof ClientV2Exception
+                        && ((ClientV2Exception) e).getCode() == ALREADY_BOUND, e -> Mono.empty());
+    }
+
+    private Mono<String> serviceInstanceId(String serviceInstance) {
+        return serviceInstanceIds.computeIfAbsent(serviceInstance, name -> spaceId
+                .flatMap(id -> client.spaces()
+                        .listServiceInstances(ListSpaceServiceInstancesRequest.builder()
+                                .spaceId(id)
+                                .name(name)
+                                .returnUserProvidedServiceInstances(true)
+                                .page(1)
+                                .build()))
+                .flatMapMany(ResourceUtils::getResources)
+                .next()
+                .map(ResourceUtils::getId)
+                .switchIfEmpty(Mono.defer(() -> Mono.error(new IllegalArgumentException(
+                        "no service instance " + name + " in the space"))))
+                .cache());
+    }
+}
@@ -0,0 +1,100 @@
+package io.todos.cf.cfclient;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import java.util.ArrayDeque;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+// caps the number of in-flight cloud controller operations, later callers queue in arrival order
+public class CallLimiter {
+
+    private final int permits;
+    private int available;
+    private final Queue<Runnable> waiting = new ArrayDeque<>();
+
+    public CallLimiter(int permits) {
+        if (permits < 1) {
+            throw new IllegalArgumentException("permits must be at least 1, was " + permits);
+        }
+        this.permits = permits;
+        this.available = permits;
+    }
+
+    public static CallLimiter unlimited() {
+        return new CallLimiter(Integer.MAX_VALUE);
+    }
+
+    // a limiter in the subscriber context caps every cloud controller call made under it, see Resilience.call
+    public <T> Mono<T> capCalls(Mono<T> calls) {
+        return calls.subscriberContext(context -> context.put(CallLimiter.class, this));
+    }
+
+    static Optional<CallLimiter> of(Context context) {
+        return context.getOrEmpty(CallLimiter.class);
+    }
+
+    // the call is subscribed with the caller's context, so a cap on the calls reaches it
+    public <T> Mono<T> limit(Supplier<? extends Mono<T>> call) {
+        return Mono.create(sink -> {
+            AtomicReference<Disposable> running = new AtomicReference<>();
+            Runnable task = () -> running.set(Mono.defer(call)
+                    .doFinally(signal -> release())
+                    .subscriberContext(sink.currentContext())
+                    .subscribe(sink::success, sink::error, sink::success));
+            sink.onDispose(() -> {
+                if (!dequeue(task)) {
+                    Disposable disposable = running.get();
+                    if (disposable != null) {
+                        disposable.dispose();
+                    }
+                }
+            });
+            acquire(task);
+        });
+    }
+
+    public int getPermits() {
+        return permits;
+    }
+
+    public synchronized int inFlight() {
+        return permits - available;
+    }
+
+    public synchronized int queued() {
+        return waiting.size();
+    }
+
+    private void acquire(Runnable task) {
+        synchronized (this) {
+            if (available == 0) {
+                waiting.add(task);
+                return;
+            }
+            available--;
+        }
+        task.run();
+    }
+
+    // a released permit passes straight to the next queued call
+    private void release() {
+        Runnable next;
+        synchronized (this) {
+            next = waiting.poll();
+            if (next == null) {
+                available++;
+                return;
+            }
+        }
+        next.run();
+    }
+
+    private synchronized boolean dequeue(Runnable task) {
+        return waiting.remove(task);
+    }
+}
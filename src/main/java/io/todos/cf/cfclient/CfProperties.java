@@ -0,0 +1,365 @@
+package io.todos.cf.cfclient;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.nio.file.Paths;
+
+// what a foundation is reached and deployed with, bound from cf.* for the target, see Context, and from
+// cf.foundations.<name>.* over cf.* for the others, whose api and domain are their own, see Foundations.
+// the defaults are only set here
+@ConfigurationProperties("cf")
+public class CfProperties {
+
+    private String api;
+    // 0 for the default https port
+    private int port;
+    private boolean secure = true;
+    private boolean skipSslValidation;
+    private String username;
+    private String password;
+    private String organization;
+    private String space;
+    private String domain;
+    // empty for a password grant every start, see TokenStore
+    private String tokens = Paths.get(System.getProperty("user.home"), ".todos", "tokens.json").toString();
+    // see Ledger
+    private String ledger = Paths.get(System.getProperty("user.home"), ".todos", "ledger.json").toString();
+    // cf default memory for apps
+    private int memory = 1024;
+    // service binds in flight at once per deploy
+    private int bindConcurrency = 8;
+    // seconds a blue/green app may take to stage and run all its instances
+    private int readinessTimeout = 600;
+    private final ConnectionProperties connection = new ConnectionProperties();
+    private final ResilienceProperties resilience = new ResilienceProperties();
+    private final ListingsProperties listings = new ListingsProperties();
+    private final FollowProperties follow = new FollowProperties();
+
+    public String getApi() {
+        return api;
+    }
+
+    public void setApi(String api) {
+        this.api = api;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public boolean isSecure() {
+        return secure;
+    }
+
+    public void setSecure(boolean secure) {
+        this.secure = secure;
+    }
+
+    public boolean isSkipSslValidation() {
+        return skipSslValidation;
+    }
+
+    public void setSkipSslValidation(boolean skipSslValidation) {
+        this.skipSslValidation = skipSslValidation;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    public String getOrganization() {
+        return organization;
+    }
+
+    public void setOrganization(String organization) {
+        this.organization = organization;
+    }
+
+    public String getSpace() {
+        return space;
+    }
+
+    public void setSpace(String space) {
+        this.space = space;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public void setDomain(String domain) {
+        this.domain = domain;
+    }
+
+    public String getTokens() {
+        return tokens;
+    }
+
+    public void setTokens(String tokens) {
+        this.tokens = tokens;
+    }
+
+    public String getLedger() {
+        return ledger;
+    }
+
+    public void setLedger(String ledger) {
+        this.ledger = ledger;
+    }
+
+    public int getMemory() {
+        return memory;
+    }
+
+    public void setMemory(int memory) {
+        this.memory = memory;
+    }
+
+    public int getBindConcurrency() {
+        return bindConcurrency;
+    }
+
+    public void setBindConcurrency(int bindConcurrency) {
+        this.bindConcurrency = bindConcurrency;
+    }
+
+    public int getReadinessTimeout() {
+        return readinessTimeout;
+    }
+
+    public void setReadinessTimeout(int readinessTimeout) {
+        this.readinessTimeout = readinessTimeout;
+    }
+
+    public ConnectionProperties getConnection() {
+        return connection;
+    }
+
+    public ResilienceProperties getResilience() {
+        return resilience;
+    }
+
+    public ListingsProperties getListings() {
+        return listings;
+    }
+
+    public FollowProperties getFollow() {
+        return follow;
+    }
+
+    // cf.connection.*, the event loop size and warm-up are the target's only
+    public static class ConnectionProperties {
+
+        // event loop threads, 0 for the client default
+        private int threads;
+        // connections opened at startup, see ConnectionWarmup, 0 for none
+        private int warmUp;
+        // 0 for the client default
+        private int poolSize;
+        private long acquireTimeoutMs = 45000;
+        // tcp probes on idle connections, http connection reuse is the pool's
+        private boolean tcpKeepAlive = true;
+        private int connectTimeoutMs = 30000;
+        private long sslHandshakeTimeoutMs = 10000;
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public int getWarmUp() {
+            return warmUp;
+        }
+
+        public void setWarmUp(int warmUp) {
+            this.warmUp = warmUp;
+        }
+
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        public void setPoolSize(int poolSize) {
+            this.poolSize = poolSize;
+        }
+
+        public long getAcquireTimeoutMs() {
+            return acquireTimeoutMs;
+        }
+
+        public void setAcquireTimeoutMs(long acquireTimeoutMs) {
+            this.acquireTimeoutMs = acquireTimeoutMs;
+        }
+
+        public boolean isTcpKeepAlive() {
+            return tcpKeepAlive;
+        }
+
+        public void setTcpKeepAlive(boolean tcpKeepAlive) {
+            this.tcpKeepAlive = tcpKeepAlive;
+        }
+
+        public int getConnectTimeoutMs() {
+            return connectTimeoutMs;
+        }
+
+        public void setConnectTimeoutMs(int connectTimeoutMs) {
+            this.connectTimeoutMs = connectTimeoutMs;
+        }
+
+        public long getSslHandshakeTimeoutMs() {
+            return sslHandshakeTimeoutMs;
+        }
+
+        public void setSslHandshakeTimeoutMs(long sslHandshakeTimeoutMs) {
+            this.sslHandshakeTimeoutMs = sslHandshakeTimeoutMs;
+        }
+    }
+
+    // cf.resilience.*, see Resilience
+    public static class ResilienceProperties {
+
+        private int retries = 4;
+        private long backoffMs = 250;
+        private long maxBackoffMs = 8000;
+        // a used up hourly limit isn't waited out, calls fail once the pause would be longer than this
+        private long maxPauseMs = 60000;
+        private int breakerFailures = 20;
+        private long breakerCooldownMs = 15000;
+        // bulkheads, calls in flight at once by kind
+        private int uploads = 4;
+        private int staging = 8;
+        private int metadata = 64;
+
+        public int getRetries() {
+            return retries;
+        }
+
+        public void setRetries(int retries) {
+            this.retries = retries;
+        }
+
+        public long getBackoffMs() {
+            return backoffMs;
+        }
+
+        public void setBackoffMs(long backoffMs) {
+            this.backoffMs = backoffMs;
+        }
+
+        public long getMaxBackoffMs() {
+            return maxBackoffMs;
+        }
+
+        public void setMaxBackoffMs(long maxBackoffMs) {
+            this.maxBackoffMs = maxBackoffMs;
+        }
+
+        public long getMaxPauseMs() {
+            return maxPauseMs;
+        }
+
+        public void setMaxPauseMs(long maxPauseMs) {
+            this.maxPauseMs = maxPauseMs;
+        }
+
+        public int getBreakerFailures() {
+            return breakerFailures;
+        }
+
+        public void setBreakerFailures(int breakerFailures) {
+            this.breakerFailures = breakerFailures;
+        }
+
+        public long getBreakerCooldownMs() {
+            return breakerCooldownMs;
+        }
+
+        public void setBreakerCooldownMs(long breakerCooldownMs) {
+            this.breakerCooldownMs = breakerCooldownMs;
+        }
+
+        public int getUploads() {
+            return uploads;
+        }
+
+        public void setUploads(int uploads) {
+            this.uploads = uploads;
+        }
+
+        public int getStaging() {
+            return staging;
+        }
+
+        public void setStaging(int staging) {
+            this.staging = staging;
+        }
+
+        public int getMetadata() {
+            return metadata;
+        }
+
+        public void setMetadata(int metadata) {
+            this.metadata = metadata;
+        }
+    }
+
+    // cf.listings.*, the target's only, see Listings
+    public static class ListingsProperties {
+
+        // seconds a listing is served from the cache
+        private int ttl = 30;
+        // pages fetched at once
+        private int concurrency = 4;
+
+        public int getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(int ttl) {
+            this.ttl = ttl;
+        }
+
+        public int getConcurrency() {
+            return concurrency;
+        }
+
+        public void setConcurrency(int concurrency) {
+            this.concurrency = concurrency;
+        }
+    }
+
+    // cf.follow.*, see LogFollower
+    public static class FollowProperties {
+
+        // log lines a push with follow holds for the terminal, the oldest are dropped beyond it
+        private int buffer = 2000;
+
+        public int getBuffer() {
+            return buffer;
+        }
+
+        public void setBuffer(int buffer) {
+            this.buffer = buffer;
+        }
+    }
+}
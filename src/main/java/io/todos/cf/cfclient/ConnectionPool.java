@@ -0,0 +1,144 @@
+package io.todos.cf.cfclient;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.pool.ChannelPool;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import reactor.core.publisher.Mono;
+import reactor.ipc.netty.resources.PoolResources;
+
+import java.net.SocketAddress;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// the fixed reactor-netty connection pool the cf clients share, counting connections as they are
+// opened, acquired and released so the pool can be sized against real load, see the metrics command
+public class ConnectionPool implements PoolResources {
+
+    private final PoolResources pool;
+    private final int size;
+
+    private final AtomicInteger open = new AtomicInteger();
+    // connections acquired and not yet released nor closed, the rest of open are idle
+    private final Set<Channel> active = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger peakActive = new AtomicInteger();
+    private final AtomicInteger peakPending = new AtomicInteger();
+
+    public ConnectionPool(String name, int size, long acquireTimeoutMillis) {
+        this.pool = PoolResources.fixed(name, size, acquireTimeoutMillis);
+        this.size = size;
+    }
+
+    // connections each call gets through the counting pool, the same pool per remote address
+    @Override
+    public ChannelPool selectOrCreate(SocketAddress address, Supplier<? extends Bootstrap> bootstrap,
+                                     Consumer<? super Channel> onChannelCreate, EventLoopGroup group) {
+        return new Counted(pool.selectOrCreate(address, bootstrap, channel -> {
+            open.incrementAndGet();
+            channel.closeFuture().addListener(closed -> {
+                open.decrementAndGet();
+                active.remove(channel);
+            });
+            onChannelCreate.accept(channel);
+        }, group));
+    }
+
+    // gauges named <prefix>.size, <prefix>.open and so on
+    public void register(Metrics metrics, String prefix) {
+        metrics.gauge(prefix + ".size", () -> size);
+        metrics.gauge(prefix + ".open", this::getOpen);
+        metrics.gauge(prefix + ".active", this::getActive);
+        metrics.gauge(prefix + ".idle", this::getIdle);
+        metrics.gauge(prefix + ".pending", this::getPending);
+        metrics.gauge(prefix + ".peak.active", peakActive::get);
+        metrics.gauge(prefix + ".peak.pending", peakPending::get);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getOpen() {
+        return open.get();
+    }
+
+    public int getActive() {
+        return active.size();
+    }
+
+    public int getIdle() {
+        return Math.max(0, open.get() - active.size());
+    }
+
+    public int getPending() {
+        return pending.get();
+    }
+
+    @Override
+    public void dispose() {
+        pool.dispose();
+    }
+
+    @Override
+    public Mono<Void> disposeLater() {
+        return pool.disposeLater();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return pool.isDisposed();
+    }
+
+    private class Counted implements ChannelPool {
+        private final ChannelPool delegate;
+
+        private Counted(ChannelPool delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Future<Channel> acquire() {
+            return acquired(delegate.acquire());
+        }
+
+        @Override
+        public Future<Channel> acquire(Promise<Channel> promise) {
+            return acquired(delegate.acquire(promise));
+        }
+
+        @Override
+        public Future<Void> release(Channel channel) {
+            active.remove(channel);
+            return delegate.release(channel);
+        }
+
+        @Override
+        public Future<Void> release(Channel channel, Promise<Void> promise) {
+            active.remove(channel);
+            return delegate.release(channel, promise);
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+
+        // waiting until the pool hands out a connection or the acquire times out
+        private Future<Channel> acquired(Future<Channel> acquiring) {
+            peakPending.accumulateAndGet(pending.incrementAndGet(), Math::max);
+            acquiring.addListener(done -> {
+                pending.decrementAndGet();
+                if (done.isSuccess() && active.add(acquiring.getNow())) {
+                    peakActive.accumulateAndGet(active.size(), Math::max);
+                }
+            });
+            return acquiring;
+        }
+    }
+}
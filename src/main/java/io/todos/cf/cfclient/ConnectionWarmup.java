@@ -0,0 +1,60 @@
+package io.todos.cf.cfclient;
+
+import org.cloudfoundry.reactor.ConnectionContext;
+import org.cloudfoundry.reactor.TokenProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+// at startup resolves the api root, gets a token and opens cf.connection.warmUp connections (tls
+// handshakes included) in the background, so the first command finds them ready. 0 turns it off
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class ConnectionWarmup implements ApplicationRunner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionWarmup.class);
+
+    private ConnectionContext connectionContext;
+    private TokenProvider tokenProvider;
+    private int connections;
+
+    // lazy, so nothing is built when warm-up is off
+    public ConnectionWarmup(@Autowired @Lazy ConnectionContext connectionContext,
+                            @Autowired @Lazy TokenProvider tokenProvider,
+                            @Autowired CfProperties properties) {
+        this.connectionContext = connectionContext;
+        this.tokenProvider = tokenProvider;
+        this.connections = properties.getConnection().getWarmUp();
+    }
+
+    // the shell runs as the next application runner, so this must not block it
+    @Override
+    public void run(ApplicationArguments args) {
+        if (connections > 0) {
+            long start = System.nanoTime();
+            warmUp().subscribe(
+                    opened -> LOGGER.debug("warmed up {} connections in {}ms", opened,
+                            (System.nanoTime() - start) / 1_000_000),
+                    e -> LOGGER.debug("connection warm-up failed: {}", e.getMessage()));
+        }
+    }
+
+    // concurrent requests each take their own connection, /v2/info needs no token
+    public Mono<Long> warmUp() {
+        return connectionContext.getRootProvider().getRoot("cloud_controller_v2", connectionContext)
+                .flatMap(root -> Flux.range(0, connections)
+                        .flatMap(i -> connectionContext.getHttpClient().get(root + "/info")
+                                .flatMap(response -> response.receive().then()), connections)
+                        .then()
+                        .and(tokenProvider.getToken(connectionContext))
+                        .thenReturn((long) connections));
+    }
+}
@@ -1,69 +1,178 @@
 package io.todos.cf.cfclient;
 
+import io.netty.channel.ChannelOption;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
 import org.cloudfoundry.client.CloudFoundryClient;
+import org.cloudfoundry.doppler.DopplerClient;
 import org.cloudfoundry.networking.NetworkingClient;
-import org.cloudfoundry.operations.DefaultCloudFoundryOperations;
 import org.cloudfoundry.reactor.ConnectionContext;
 import org.cloudfoundry.reactor.DefaultConnectionContext;
 import org.cloudfoundry.reactor.TokenProvider;
 import org.cloudfoundry.reactor.client.ReactorCloudFoundryClient;
+import org.cloudfoundry.reactor.doppler.ReactorDopplerClient;
 import org.cloudfoundry.reactor.networking.ReactorNetworkingClient;
 import org.cloudfoundry.reactor.tokenprovider.PasswordGrantTokenProvider;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import reactor.ipc.netty.http.client.HttpClient;
+import reactor.ipc.netty.resources.LoopResources;
+import reactor.ipc.netty.resources.PoolResources;
 
+import java.nio.file.Paths;
+import java.util.Optional;
+
+// the client graph is built on first remote use, so local commands and the prompt don't wait on it
 @Configuration
+@Lazy
 public class Context {
 
+    // socket buffers the connection context would otherwise set
+    private static final int SOCKET_BUFFER_SIZE = 10 * 1024 * 1024;
+
+    // cf.connection.* size the event loop and connection pool, left unset (0) they match the client defaults
+    @Bean(destroyMethod = "dispose")
+    LoopResources connectionThreads(
+        CfProperties properties) {
+        int threads = properties.getConnection().getThreads();
+        return LoopResources.create("cloudfoundry-client",
+            threads > 0 ? threads : LoopResources.DEFAULT_IO_WORKER_COUNT, true);
+    }
+
+    // cf.* of the target, see CfProperties
+    @Bean
+    CfProperties cfProperties() {
+        return new CfProperties();
+    }
+
+    @Bean(destroyMethod = "dispose")
+    ConnectionPool connectionPool(
+        CfProperties properties,
+        Metrics metrics) {
+        ConnectionPool pool = pool("cloudfoundry-client", properties);
+        pool.register(metrics, "connections");
+        return pool;
+    }
+
+    // cf.resilience.* tune the retries, rate limit pauses, circuit breaker and bulkheads of every call, see Resilience
+    @Bean
+    Resilience resilience(
+        CfProperties properties,
+        Metrics metrics) {
+        Resilience resilience = new Resilience(properties.getApi(), properties.getResilience());
+        resilience.register(metrics, "resilience");
+        return resilience;
+    }
+
+    // the http client is built here rather than by the connection context so it uses the counting pool
     @Bean
     DefaultConnectionContext connectionContext(
-        @Value("${cf.api}") String api,
-        @Value("${cf.skipSslValidation}") Boolean skipSslValidation) {
-        return DefaultConnectionContext.builder()
-            .apiHost(api).skipSslValidation(skipSslValidation)
-                .build();
+        CfProperties properties,
+        LoopResources connectionThreads,
+        ConnectionPool connectionPool,
+        Resilience resilience) {
+        return connect(properties, connectionThreads, connectionPool, resilience);
+    }
+
+    // tokens are kept in cf.tokens between shells, set it empty for a password grant every start
+    @Bean
+    TokenProvider tokenProvider(
+        CfProperties properties) {
+        return tokens(properties);
+    }
+
+    @Bean
+    StreamingUpload streamingUpload(
+        ConnectionContext connectionContext,
+        TokenProvider tokenProvider,
+        Resilience resilience) {
+        return new StreamingUpload(connectionContext, tokenProvider, resilience);
     }
 
+    // what redeploy compares jars against, see Ledger
     @Bean
-    PasswordGrantTokenProvider tokenProvider(
-        @Value("${cf.username}") String username,
-        @Value("${cf.password}") String password) {
-        return PasswordGrantTokenProvider.builder()
-            .password(password)
-                .username(username)
-                    .build();
+    Ledger ledger(
+        CfProperties properties) {
+        return new Ledger(Paths.get(properties.getLedger()), properties.getApi());
     }
 
+    // clients are timed per call, see the metrics command, and resilient, see Resilience
     @Bean
     NetworkingClient networkingClient(
         ConnectionContext connectionContext,
-        TokenProvider tokenProvider) {
-        return ReactorNetworkingClient.builder()
+        TokenProvider tokenProvider,
+        Metrics metrics,
+        Resilience resilience) {
+        return Instrumented.instrument(NetworkingClient.class, ReactorNetworkingClient.builder()
             .connectionContext(connectionContext)
             .tokenProvider(tokenProvider)
-            .build();
+            .build(), metrics, resilience);
     }
 
     @Bean
-    ReactorCloudFoundryClient cloudFoundryClient(
+    CloudFoundryClient cloudFoundryClient(
         ConnectionContext connectionContext,
-        TokenProvider tokenProvider) {
-        return ReactorCloudFoundryClient.builder()
+        TokenProvider tokenProvider,
+        Metrics metrics,
+        Resilience resilience) {
+        return Instrumented.instrument(CloudFoundryClient.class, ReactorCloudFoundryClient.builder()
             .connectionContext(connectionContext)
-                .tokenProvider(tokenProvider).build();
+                .tokenProvider(tokenProvider).build(), metrics, resilience);
     }
 
+    // log streams stay open for a whole push, they aren't timed or retried like the calls
     @Bean
-    DefaultCloudFoundryOperations cloudFoundryOperations(
-        CloudFoundryClient cloudFoundryClient,
-        NetworkingClient networkingClient,
-        @Value("${cf.organization}") String organization,
-        @Value("${cf.space}") String space) {
-        return DefaultCloudFoundryOperations.builder()
-            .cloudFoundryClient(cloudFoundryClient)
-                .networkingClient(networkingClient)
-                .organization(organization)
-                    .space(space).build();
+    DopplerClient dopplerClient(
+        ConnectionContext connectionContext,
+        TokenProvider tokenProvider) {
+        return ReactorDopplerClient.builder()
+            .connectionContext(connectionContext)
+            .tokenProvider(tokenProvider)
+            .build();
+    }
+
+    // shared with the other foundations, see Foundations
+    static ConnectionPool pool(String name, CfProperties properties) {
+        int poolSize = properties.getConnection().getPoolSize();
+        return new ConnectionPool(name, poolSize > 0 ? poolSize : PoolResources.DEFAULT_POOL_MAX_CONNECTION,
+            properties.getConnection().getAcquireTimeoutMs());
+    }
+
+    static DefaultConnectionContext connect(CfProperties properties, LoopResources connectionThreads,
+                                            PoolResources connectionPool, Resilience resilience) {
+        CfProperties.ConnectionProperties connection = properties.getConnection();
+        HttpClient httpClient = HttpClient.create(options -> {
+            options.compression(true)
+                .loopResources(connectionThreads)
+                .poolResources(connectionPool)
+                .option(ChannelOption.SO_SNDBUF, SOCKET_BUFFER_SIZE)
+                .option(ChannelOption.SO_RCVBUF, SOCKET_BUFFER_SIZE)
+                // tcp probes on idle connections, http connection reuse is the pool's
+                .option(ChannelOption.SO_KEEPALIVE, connection.isTcpKeepAlive())
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connection.getConnectTimeoutMs())
+                .sslHandshakeTimeoutMillis(connection.getSslHandshakeTimeoutMs())
+                .afterChannelInit(resilience::watch);
+            if (properties.isSkipSslValidation()) {
+                options.sslSupport(ssl -> ssl.trustManager(InsecureTrustManagerFactory.INSTANCE));
+            }
+        });
+        // port and secure are for foundations off the default https port, e.g. a local fake
+        return DefaultConnectionContext.builder()
+            .apiHost(properties.getApi())
+            .port(properties.getPort() > 0 ? Optional.of(properties.getPort()) : Optional.empty())
+            .secure(properties.isSecure())
+            .httpClient(httpClient)
+            .build();
+    }
+
+    static TokenProvider tokens(CfProperties properties) {
+        if (properties.getTokens().isEmpty()) {
+            return PasswordGrantTokenProvider.builder()
+                .password(properties.getPassword())
+                    .username(properties.getUsername())
+                        .build();
+        }
+        return new TokenStore(Paths.get(properties.getTokens()), properties.getApi(), properties.getUsername(),
+            properties.getPassword());
     }
 }
@@ -0,0 +1,42 @@
+package io.todos.cf.cfclient;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+// deploys many tagged stacks through one pipeline that shares a cap on in-flight cloud controller calls
+@Component
+@Lazy
+public class Fleet {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Fleet.class);
+
+    private TopologyExecutor executor;
+    // the stacks copy each other's bits, see ApplicationBits.share
+    private ApplicationBits bits;
+
+    public Fleet(@Autowired TopologyExecutor executor,
+                 @Autowired ApplicationBits bits) {
+        this.executor = executor;
+        this.bits = bits;
+    }
+
+    // stacks bounds how many topologies are deployed at once, maxCalls the cloud controller calls in flight
+    // for all of them, retries and uploads included
+    public Mono<Void> push(List<Topology> topologies, int stacks, int maxCalls, StepListener listener) {
+        return bits.share(new CallLimiter(maxCalls).capCalls(Flux.fromIterable(topologies)
+                .flatMap(topology -> executor.execute(topology, listener)
+                        .doOnSuccess(done -> LOGGER.info("stack {} deployed", topology.getTag()))
+                        .onErrorResume(e -> {
+                            LOGGER.error("stack {} failed: {}", topology.getTag(), e.getMessage());
+                            return Mono.empty();
+                        }), stacks)
+                .then()));
+    }
+}
@@ -0,0 +1,55 @@
+package io.todos.cf.cfclient;
+
+import org.cloudfoundry.client.CloudFoundryClient;
+
+// one of the foundations under cf.foundations, with its own connection pool, token and cf clients
+public class Foundation {
+
+    private final String name;
+    private final String api;
+    private final ConnectionPool connectionPool;
+    private final CloudFoundryClient client;
+    private final Targets targets;
+    private final TopologyExecutor executor;
+    private final Topologies topologies;
+
+    Foundation(String name, String api, ConnectionPool connectionPool, CloudFoundryClient client, Targets targets,
+               TopologyExecutor executor, Topologies topologies) {
+        this.name = name;
+        this.api = api;
+        this.connectionPool = connectionPool;
+        this.client = client;
+        this.targets = targets;
+        this.executor = executor;
+        this.topologies = topologies;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getApi() {
+        return api;
+    }
+
+    public ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    public CloudFoundryClient getClient() {
+        return client;
+    }
+
+    public Targets getTargets() {
+        return targets;
+    }
+
+    public TopologyExecutor getExecutor() {
+        return executor;
+    }
+
+    // the variants with this foundation's api and apps domain
+    public Topologies getTopologies() {
+        return topologies;
+    }
+}
@@ -0,0 +1,186 @@
+package io.todos.cf.cfclient;
+
+import org.cloudfoundry.client.CloudFoundryClient;
+import org.cloudfoundry.doppler.DopplerClient;
+import org.cloudfoundry.networking.NetworkingClient;
+import org.cloudfoundry.reactor.DefaultConnectionContext;
+import org.cloudfoundry.reactor.TokenProvider;
+import org.cloudfoundry.reactor.client.ReactorCloudFoundryClient;
+import org.cloudfoundry.reactor.doppler.ReactorDopplerClient;
+import org.cloudfoundry.reactor.networking.ReactorNetworkingClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.ipc.netty.resources.LoopResources;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+// the foundations listed under cf.foundations.<name> that a push can fan out to. each is built on first
+// use with its own connection pool, token and cf clients. its api and domain must be its own, anything
+// else it leaves out is taken from cf.*. the event loop, metrics and jar fingerprints are shared, so a
+// jar is hashed once for all of them
+@Component
+@Lazy
+public class Foundations implements DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Foundations.class);
+
+    private static final String FOUNDATIONS = "cf.foundations";
+
+    private Environment environment;
+    private LoopResources connectionThreads;
+    private ApplicationBits bits;
+    private Metrics metrics;
+    private Topologies topologies;
+
+    private final Map<String, Foundation> foundations = new ConcurrentHashMap<>();
+
+    public Foundations(@Autowired Environment environment,
+                       @Autowired LoopResources connectionThreads,
+                       @Autowired ApplicationBits bits,
+                       @Autowired Metrics metrics,
+                       @Autowired Topologies topologies) {
+        this.environment = environment;
+        this.connectionThreads = connectionThreads;
+        this.bits = bits;
+        this.metrics = metrics;
+        this.topologies = topologies;
+    }
+
+    public Set<String> names() {
+        return new TreeSet<>(Binder.get(environment)
+                .bind(FOUNDATIONS, Bindable.mapOf(String.class, Object.class))
+                .map(Map::keySet)
+                .orElse(Collections.emptySet()));
+    }
+
+    // all or nothing, so a typo fails the push before anything is deployed
+    public List<Foundation> get(List<String> names) {
+        Set<String> configured = names();
+        List<Foundation> foundations = new ArrayList<>();
+        for (String name : names) {
+            if (!configured.contains(name.trim())) {
+                throw new IllegalArgumentException("no foundation " + name.trim() + ", configured: "
+                        + String.join(", ", configured));
+            }
+            foundations.add(get(name.trim()));
+        }
+        return foundations;
+    }
+
+    public Foundation get(String name) {
+        return foundations.computeIfAbsent(name, this::create);
+    }
+
+    // the topology goes to every foundation at once and a failed foundation doesn't stop the others.
+    // each foundation is a step timed as deploy.foundation, its own steps are <foundation>/<step>
+    public Mono<Void> push(List<Foundation> foundations, Function<Topologies, Topology> topology,
+                           TopologyExecutor.Deployment deployment, StepListener listener) {
+        return Flux.fromIterable(foundations)
+                .flatMap(foundation -> push(foundation, topology.apply(foundation.getTopologies()), deployment,
+                        listener), Math.max(1, foundations.size()))
+                .then();
+    }
+
+    @Override
+    public void destroy() {
+        foundations.values().forEach(foundation -> foundation.getConnectionPool().dispose());
+    }
+
+    private Mono<Void> push(Foundation foundation, Topology topology, TopologyExecutor.Deployment deployment,
+                            StepListener listener) {
+        String name = foundation.getName();
+        listener.planned(name);
+        return metrics.time("deploy.foundation", name, Mono.defer(() -> {
+            listener.started(name);
+            return deployment.run(foundation.getExecutor(), topology, StepListener.prefixed(name + "/", listener));
+        }))
+                .doOnSuccess(done -> {
+                    listener.succeeded(name);
+                    LOGGER.info("stack {} deployed to {}", topology.getTag(), name);
+                })
+                .doOnCancel(() -> listener.cancelled(name))
+                .onErrorResume(e -> {
+                    listener.failed(name, e);
+                    LOGGER.error("stack {} failed on {}: {}", topology.getTag(), name, e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    private Foundation create(String name) {
+        // a foundation that took these from cf.* would be the target under another name
+        String api = own(name, "api");
+        String domain = own(name, "domain");
+        CfProperties properties = properties(name);
+        ConnectionPool connectionPool = Context.pool("cloudfoundry-client-" + name, properties);
+        connectionPool.register(metrics, "connections." + name);
+        Resilience resilience = new Resilience(name, properties.getResilience());
+        resilience.register(metrics, "resilience." + name);
+        DefaultConnectionContext connectionContext = Context.connect(properties, connectionThreads, connectionPool,
+                resilience);
+        required(name, "username", properties.getUsername());
+        required(name, "password", properties.getPassword());
+        TokenProvider tokenProvider = Context.tokens(properties);
+        CloudFoundryClient client = Instrumented.instrument(CloudFoundryClient.class,
+                ReactorCloudFoundryClient.builder()
+                        .connectionContext(connectionContext)
+                        .tokenProvider(tokenProvider)
+                        .build(), metrics, resilience);
+        NetworkingClient networkingClient = Instrumented.instrument(NetworkingClient.class,
+                ReactorNetworkingClient.builder()
+                        .connectionContext(connectionContext)
+                        .tokenProvider(tokenProvider)
+                        .build(), metrics, resilience);
+        DopplerClient dopplerClient = ReactorDopplerClient.builder()
+                .connectionContext(connectionContext)
+                .tokenProvider(tokenProvider)
+                .build();
+        Targets targets = new Targets(client, networkingClient,
+                required(name, "organization", properties.getOrganization()),
+                required(name, "space", properties.getSpace()));
+        TopologyExecutor executor = new TopologyExecutor(targets, client, bits,
+                new StreamingUpload(connectionContext, tokenProvider, resilience), metrics,
+                new Ledger(Paths.get(properties.getLedger()), api), dopplerClient, properties);
+        LOGGER.debug("foundation {} at {}", name, api);
+        return new Foundation(name, api, connectionPool, client, targets, executor,
+                topologies.on(api, domain));
+    }
+
+    // cf.foundations.<name>.* over cf.*
+    private CfProperties properties(String name) {
+        Binder binder = Binder.get(environment);
+        CfProperties properties = new CfProperties();
+        binder.bind("cf", Bindable.ofInstance(properties));
+        binder.bind(FOUNDATIONS + "." + name, Bindable.ofInstance(properties));
+        return properties;
+    }
+
+    private String own(String name, String key) {
+        return Binder.get(environment)
+                .bind(FOUNDATIONS + "." + name + "." + key, String.class)
+                .orElseThrow(() -> new IllegalStateException("no " + FOUNDATIONS + "." + name + "." + key));
+    }
+
+    private static String required(String name, String key, String value) {
+        if (value == null) {
+            throw new IllegalStateException("no " + FOUNDATIONS + "." + name + "." + key + " nor cf." + key);
+        }
+        return value;
+    }
+}
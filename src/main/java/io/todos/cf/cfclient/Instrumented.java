@@ -0,0 +1,69 @@
+package io.todos.cf.cfclient;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// wraps a cloud foundry client so every Mono or Flux it hands out is timed as "api.method",
+// nested apis like applicationsV2() or routes() are wrapped the same way. Monos are sent through
+// the foundation's Resilience, streams such as downloads and logs aren't retried
+final class Instrumented {
+
+    private static final String CLOUDFOUNDRY = "org.cloudfoundry.";
+
+    private Instrumented() {
+    }
+
+    static <T> T instrument(Class<T> type, T target, Metrics metrics, Resilience resilience) {
+        return type.cast(wrap(type, target, metrics, resilience, ""));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object wrap(Class<?> type, Object target, Metrics metrics, Resilience resilience,
+                               String prefix) {
+        Map<Method, Object> nested = new ConcurrentHashMap<>();
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            // the target would compare itself to the proxy, a proxy is only equal to itself
+            if (method.getName().equals("equals") && method.getParameterCount() == 1) {
+                return proxy == args[0];
+            }
+            Class<?> returns = method.getReturnType();
+            String operation = prefix + method.getName();
+            if (returns.isInterface() && returns.getName().startsWith(CLOUDFOUNDRY) && method.getParameterCount() == 0) {
+                return nested.computeIfAbsent(method, key -> wrap(returns, invoke(target, method, null), metrics,
+                        resilience, operation + "."));
+            }
+            // each attempt asks the client again for a fresh call
+            if (returns == Mono.class) {
+                return metrics.time(operation, resilience.call(operation,
+                        () -> (Mono<Object>) invoke(target, method, args)));
+            }
+            Object result = invoke(target, method, args);
+            if (result instanceof Flux) {
+                return metrics.time(operation, (Flux<?>) result);
+            }
+            return result;
+        });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package io.todos.cf.cfclient;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.cloudfoundry.util.FileUtils;
+import org.cloudfoundry.util.ResourceMatchingUtils.ArtifactMetadata;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// hashes every entry of a jar in parallel straight from a memory-mapped view of the file
+@Component
+public class JarFingerprinter {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final int UNIX = 3;
+    // entries per fork-join leaf task
+    private static final int BATCH = 16;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // one digest, inflater and pair of buffers per worker thread, reused across entries and jars
+    private static final ThreadLocal<Hasher> HASHERS = ThreadLocal.withInitial(Hasher::new);
+
+    private final ForkJoinPool pool;
+    // in-flight and finished results, so a jar pushed under several tags is hashed once
+    private final Map<Path, Fingerprints> fingerprints = new ConcurrentHashMap<>();
+
+    public JarFingerprinter(@Value("${jars.fingerprint.parallelism:0}") int parallelism) {
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    public List<ArtifactMetadata> fingerprints(Path jar) {
+        Path jarPath = jar.toAbsolutePath().normalize();
+        Fingerprints shared;
+        try {
+            long size = Files.size(jarPath);
+            long modified = Files.getLastModifiedTime(jarPath).toMillis();
+            shared = fingerprints.compute(jarPath, (path, existing) ->
+                    existing != null && existing.size == size && existing.modified == modified
+                            ? existing
+                            : new Fingerprints(size, modified, CompletableFuture.supplyAsync(() -> hash(path), pool)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            return shared.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            // only the failed result, another caller may have put one for the rebuilt jar since
+            fingerprints.remove(jarPath, shared);
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    List<ArtifactMetadata> hash(Path jar) {
+        try (FileChannel channel = FileChannel.open(jar, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            List<Entry> entries = centralDirectory(mapped);
+            if (entries == null) {
+                return sequential(jar);
+            }
+            ArtifactMetadata[] results = new ArtifactMetadata[entries.size()];
+            pool.invoke(new HashTask(mapped, entries, results, 0, entries.size()));
+            return Arrays.asList(results);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // the single-threaded stream-per-entry walk the cf client does, used for zip64 jars
+    static List<ArtifactMetadata> sequential(Path jar) {
+        List<ArtifactMetadata> fingerprints = new ArrayList<>();
+        try (ZipFile zipFile = new ZipFile(jar.toFile())) {
+            Enumeration<ZipArchiveEntry> entries = zipFile.getEntries();
+            while (entries.hasMoreElements()) {
+                ZipArchiveEntry entry = entries.nextElement();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                try (InputStream in = zipFile.getInputStream(entry)) {
+                    fingerprints.add(new ArtifactMetadata(FileUtils.hash(in), entry.getName(),
+                            FileUtils.permissions(entry.getUnixMode()), (int) entry.getSize()));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return fingerprints;
+    }
+
+    // file entries from the central directory, or null when the jar needs zip64 handling
+    private static List<Entry> centralDirectory(ByteBuffer jar) throws IOException {
+        int end = -1;
+        for (int position = jar.limit() - 22; position >= Math.max(0, jar.limit() - 22 - 0xFFFF); position--) {
+            if (jar.getInt(position) == END_OF_CENTRAL_DIRECTORY) {
+                end = position;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new IOException("not a zip file, no end of central directory record");
+        }
+        int count = Short.toUnsignedInt(jar.getShort(end + 10));
+        long offset = Integer.toUnsignedLong(jar.getInt(end + 16));
+        if (count == 0xFFFF || offset == 0xFFFFFFFFL) {
+            return null;
+        }
+        List<Entry> entries = new ArrayList<>(count);
+        int position = (int) offset;
+        for (int i = 0; i < count; i++) {
+            if (jar.getInt(position) != CENTRAL_HEADER) {
+                throw new IOException("corrupt central directory at " + position);
+            }
+            int madeBy = Short.toUnsignedInt(jar.getShort(position + 4)) >> 8;
+            int method = Short.toUnsignedInt(jar.getShort(position + 10));
+            long compressed = Integer.toUnsignedLong(jar.getInt(position + 20));
+            long size = Integer.toUnsignedLong(jar.getInt(position + 24));
+            int nameLength = Short.toUnsignedInt(jar.getShort(position + 28));
+            int extraLength = Short.toUnsignedInt(jar.getShort(position + 30));
+            int commentLength = Short.toUnsignedInt(jar.getShort(position + 32));
+            int attributes = jar.getInt(position + 38);
+            long header = Integer.toUnsignedLong(jar.getInt(position + 42));
+            if (compressed == 0xFFFFFFFFL || size == 0xFFFFFFFFL || header == 0xFFFFFFFFL) {
+                return null;
+            }
+            byte[] name = new byte[nameLength];
+            ByteBuffer view = jar.duplicate();
+            view.position(position + 46);
+            view.get(name);
+            String path = new String(name, StandardCharsets.UTF_8);
+            if (!path.endsWith("/")) {
+                int mode = madeBy == UNIX ? (attributes >> 16) & 0xFFFF : 0;
+                entries.add(new Entry(path, method, (int) header, (int) compressed, (int) size, mode));
+            }
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    // never serialized, a fork-join task is only Serializable by inheritance
+    @SuppressWarnings("serial")
+    private static class HashTask extends RecursiveAction {
+        private final ByteBuffer jar;
+        private final List<Entry> entries;
+        private final ArtifactMetadata[] results;
+        private final int from;
+        private final int to;
+
+        private HashTask(ByteBuffer jar, List<Entry> entries, ArtifactMetadata[] results, int from, int to) {
+            this.jar = jar;
+            this.entries = entries;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH) {
+                Hasher hasher = HASHERS.get();
+                ByteBuffer view = jar.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+                for (int i = from; i < to; i++) {
+                    Entry entry = entries.get(i);
+                    results[i] = new ArtifactMetadata(hasher.hash(view, entry), entry.path,
+                            FileUtils.permissions(entry.mode), entry.size);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new HashTask(jar, entries, results, from, middle),
+                    new HashTask(jar, entries, results, middle, to));
+        }
+    }
+
+    private static class Hasher {
+        private final MessageDigest digest;
+        private final Inflater inflater = new Inflater(true);
+        private final byte[] input = new byte[64 * 1024];
+        private final byte[] output = new byte[64 * 1024];
+
+        private Hasher() {
+            try {
+                this.digest = MessageDigest.getInstance("sha1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private String hash(ByteBuffer jar, Entry entry) {
+            if (jar.getInt(entry.header) != LOCAL_HEADER) {
+                throw new IllegalStateException("corrupt local header for " + entry.path);
+            }
+            int data = entry.header + 30
+                    + Short.toUnsignedInt(jar.getShort(entry.header + 26))
+                    + Short.toUnsignedInt(jar.getShort(entry.header + 28));
+            jar.limit(data + entry.compressed).position(data);
+            digest.reset();
+            if (entry.method == STORED) {
+                digest.update(jar);
+            } else if (entry.method == DEFLATED) {
+                inflate(jar, entry);
+            } else {
+                throw new IllegalStateException("unsupported compression method " + entry.method + " for " + entry.path);
+            }
+            jar.limit(jar.capacity());
+            return hex(digest.digest());
+        }
+
+        private void inflate(ByteBuffer jar, Entry entry) {
+            inflater.reset();
+            try {
+                while (!inflater.finished()) {
+                    if (inflater.needsInput()) {
+                        int length = Math.min(input.length, jar.remaining());
+                        if (length == 0) {
+                            throw new IllegalStateException("truncated entry " + entry.path);
+                        }
+                        jar.get(input, 0, length);
+                        inflater.setInput(input, 0, length);
+                    }
+                    int inflated = inflater.inflate(output);
+                    digest.update(output, 0, inflated);
+                    if (inflated == 0 && inflater.needsDictionary()) {
+                        throw new IllegalStateException("unexpected dictionary for " + entry.path);
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("corrupt entry " + entry.path, e);
+            }
+        }
+
+        private static String hex(byte[] bytes) {
+            char[] chars = new char[bytes.length * 2];
+            for (int i = 0; i < bytes.length; i++) {
+                chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+                chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+            }
+            return new String(chars);
+        }
+    }
+
+    private static class Entry {
+        private final String path;
+        private final int method;
+        private final int header;
+        private final int compressed;
+        private final int size;
+        private final int mode;
+
+        private Entry(String path, int method, int header, int compressed, int size, int mode) {
+            this.path = path;
+            this.method = method;
+            this.header = header;
+            this.compressed = compressed;
+            this.size = size;
+            this.mode = mode;
+        }
+    }
+
+    private static class Fingerprints {
+        private final long size;
+        private final long modified;
+        private final CompletableFuture<List<ArtifactMetadata>> result;
+
+        private Fingerprints(long size, long modified, CompletableFuture<List<ArtifactMetadata>> result) {
+            this.size = size;
+            this.modified = modified;
+            this.result = result;
+        }
+    }
+}
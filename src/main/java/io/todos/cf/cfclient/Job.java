@@ -0,0 +1,179 @@
+package io.todos.cf.cfclient;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.MonoProcessor;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// a tracked deploy: overall state plus the state and timing of every step it ran
+public class Job implements StepListener {
+
+    public enum State {
+        PENDING, RUNNING, SUCCEEDED, FAILED, CANCELLED
+    }
+
+    private final int id;
+    private final String name;
+    private final Instant startedAt = Instant.now();
+    private final Map<String, Step> steps = new ConcurrentSkipListMap<>();
+    private final MonoProcessor<Void> done = MonoProcessor.create();
+    private volatile State state = State.RUNNING;
+    private volatile Instant endedAt;
+    private volatile Throwable error;
+    private volatile Disposable disposable;
+
+    Job(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public Instant getEndedAt() {
+        return endedAt;
+    }
+
+    public Throwable getError() {
+        return error;
+    }
+
+    public Map<String, Step> getSteps() {
+        return steps;
+    }
+
+    public Duration elapsed() {
+        return Duration.between(startedAt, endedAt != null ? endedAt : Instant.now());
+    }
+
+    public boolean isDone() {
+        return endedAt != null;
+    }
+
+    // completes when the job ends, whatever the outcome
+    public MonoProcessor<Void> done() {
+        return done;
+    }
+
+    public List<String> failures() {
+        List<String> failures = new ArrayList<>();
+        steps.forEach((id, step) -> {
+            if (step.state == State.FAILED) {
+                failures.add(id + ": " + step.error.getMessage());
+            }
+        });
+        return failures;
+    }
+
+    void attach(Disposable disposable) {
+        this.disposable = disposable;
+    }
+
+    void cancel() {
+        Disposable disposable = this.disposable;
+        if (disposable != null && !isDone()) {
+            disposable.dispose();
+            finish(State.CANCELLED, null);
+        }
+    }
+
+    void succeed() {
+        finish(failures().isEmpty() ? State.SUCCEEDED : State.FAILED, null);
+    }
+
+    void fail(Throwable error) {
+        finish(State.FAILED, error);
+    }
+
+    private synchronized void finish(State state, Throwable error) {
+        if (isDone()) {
+            return;
+        }
+        this.error = error;
+        this.state = state;
+        this.endedAt = Instant.now();
+        this.done.onComplete();
+    }
+
+    @Override
+    public void planned(String step) {
+        steps.put(step, new Step());
+    }
+
+    @Override
+    public void started(String step) {
+        Step current = steps.computeIfAbsent(step, id -> new Step());
+        current.state = State.RUNNING;
+        current.startedAt = Instant.now();
+    }
+
+    @Override
+    public void succeeded(String step) {
+        end(step, State.SUCCEEDED, null);
+    }
+
+    @Override
+    public void failed(String step, Throwable error) {
+        end(step, State.FAILED, error);
+    }
+
+    @Override
+    public void cancelled(String step) {
+        end(step, State.CANCELLED, null);
+    }
+
+    private void end(String step, State state, Throwable error) {
+        Step current = steps.computeIfAbsent(step, id -> new Step());
+        current.state = state;
+        current.error = error;
+        current.endedAt = Instant.now();
+    }
+
+    public static class Step {
+        private volatile State state = State.PENDING;
+        private volatile Instant startedAt;
+        private volatile Instant endedAt;
+        private volatile Throwable error;
+
+        public State getState() {
+            return state;
+        }
+
+        public Instant getStartedAt() {
+            return startedAt;
+        }
+
+        public Instant getEndedAt() {
+            return endedAt;
+        }
+
+        public Throwable getError() {
+            return error;
+        }
+
+        public Duration elapsed() {
+            if (startedAt == null) {
+                return Duration.ZERO;
+            }
+            return Duration.between(startedAt, endedAt != null ? endedAt : Instant.now());
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package io.todos.cf.cfclient;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+// registry of deploys started from this shell. running jobs stay, of the finished ones only the latest
+// retained are kept, the oldest go as new jobs are submitted
+@Component
+public class Jobs {
+
+    private final AtomicInteger ids = new AtomicInteger();
+    private final Map<Integer, Job> jobs = new ConcurrentSkipListMap<>();
+    private final int retained;
+
+    public Jobs(@Value("${jobs.retained:100}") int retained) {
+        this.retained = Math.max(0, retained);
+    }
+
+    public Job submit(String name, Function<StepListener, Mono<Void>> work) {
+        evict();
+        Job job = new Job(ids.incrementAndGet(), name);
+        jobs.put(job.getId(), job);
+        job.attach(Mono.defer(() -> work.apply(job))
+                .subscribe(done -> {
+                }, job::fail, job::succeed));
+        return job;
+    }
+
+    public List<Job> list() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    // ids ascend, so the first finished jobs are the oldest
+    private synchronized void evict() {
+        List<Integer> finished = new ArrayList<>();
+        jobs.forEach((id, job) -> {
+            if (job.isDone()) {
+                finished.add(id);
+            }
+        });
+        for (int i = 0; i < finished.size() - retained; i++) {
+            jobs.remove(finished.get(i));
+        }
+    }
+
+    public Job get(int id) {
+        Job job = jobs.get(id);
+        if (job == null) {
+            throw new IllegalArgumentException("no job " + id);
+        }
+        return job;
+    }
+}
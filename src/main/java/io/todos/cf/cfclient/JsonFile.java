@@ -0,0 +1,80 @@
+package io.todos.cf.cfclient;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+// a json object in a file that the stores of several foundations may share, see Ledger and TokenStore.
+// an update reads the file, changes it and moves a new file into place under one lock per file, so
+// concurrent updates keep each other's keys and a failed write never leaves half a file behind.
+// an unreadable file is started over
+final class JsonFile {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JsonFile.class);
+
+    private static final Map<Path, Object> LOCKS = new ConcurrentHashMap<>();
+
+    private final Path file;
+    // what the file holds, for the logs
+    private final String what;
+    private final boolean ownerOnly;
+    private final Object lock;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    JsonFile(Path file, String what, boolean ownerOnly) {
+        this.file = file;
+        this.what = what;
+        this.ownerOnly = ownerOnly;
+        this.lock = LOCKS.computeIfAbsent(file.toAbsolutePath().normalize(), path -> new Object());
+    }
+
+    // a missing node when the file has no such key
+    JsonNode get(String key) {
+        synchronized (lock) {
+            return stored().path(key);
+        }
+    }
+
+    void update(Consumer<ObjectNode> change) {
+        synchronized (lock) {
+            try {
+                Path folder = file.toAbsolutePath().getParent();
+                Files.createDirectories(folder);
+                ObjectNode stored = stored();
+                change.accept(stored);
+                Path temp = ownerOnly && FileSystems.getDefault().supportedFileAttributeViews().contains("posix")
+                        ? Files.createTempFile(folder, file.getFileName().toString(), ".tmp",
+                        PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")))
+                        : Files.createTempFile(folder, file.getFileName().toString(), ".tmp");
+                Files.write(temp, mapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(stored));
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                LOGGER.warn("could not save {} to {}: {}", what, file, e.getMessage());
+            }
+        }
+    }
+
+    private ObjectNode stored() {
+        try {
+            JsonNode stored = Files.exists(file) ? mapper.readTree(file.toFile()) : null;
+            if (stored instanceof ObjectNode) {
+                return (ObjectNode) stored;
+            }
+        } catch (IOException e) {
+            LOGGER.debug("replacing unreadable {} {}: {}", what, file, e.getMessage());
+        }
+        return mapper.createObjectNode();
+    }
+}
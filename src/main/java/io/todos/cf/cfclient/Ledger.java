@@ -0,0 +1,58 @@
+package io.todos.cf.cfclient;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+// what was last deployed per app: the jar digest and the package timestamp the platform gave its bits.
+// a redeploy uploads a jar again only when its digest changed or the package was replaced since, e.g.
+// by a push from somewhere else. entries are <api>/<org>/<space>/<app>, so foundations can share the file
+public class Ledger {
+
+    private final JsonFile file;
+    private final String api;
+
+    public Ledger(Path file, String api) {
+        this.file = new JsonFile(file, "deploy ledger", false);
+        this.api = api;
+    }
+
+    // an unreadable ledger is started over, the next redeploy uploads everything once
+    public Entry get(String target, String app) {
+        JsonNode entry = file.get(key(target, app));
+        if (entry.isMissingNode()) {
+            return null;
+        }
+        return new Entry(entry.path("digest").asText(null), entry.path("packageUpdatedAt").asText(null));
+    }
+
+    // one write for all the apps of a deploy, entries of other apps are kept
+    public void record(String target, Map<String, Entry> entries) {
+        file.update(ledger -> entries.forEach((app, entry) -> ledger.putObject(key(target, app))
+                .put("digest", entry.getDigest())
+                .put("packageUpdatedAt", entry.getPackageUpdatedAt())));
+    }
+
+    private String key(String target, String app) {
+        return api + "/" + target + "/" + app;
+    }
+
+    public static class Entry {
+        private final String digest;
+        private final String packageUpdatedAt;
+
+        public Entry(String digest, String packageUpdatedAt) {
+            this.digest = digest;
+            this.packageUpdatedAt = packageUpdatedAt;
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+
+        public String getPackageUpdatedAt() {
+            return packageUpdatedAt;
+        }
+    }
+}
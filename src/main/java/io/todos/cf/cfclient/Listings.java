@@ -0,0 +1,406 @@
+package io.todos.cf.cfclient;
+
+import org.cloudfoundry.client.CloudFoundryClient;
+import org.cloudfoundry.client.v2.ClientV2Exception;
+import org.cloudfoundry.client.v2.OrderDirection;
+import org.cloudfoundry.client.v2.applications.ApplicationEntity;
+import org.cloudfoundry.client.v2.applications.ApplicationResource;
+import org.cloudfoundry.client.v2.applications.GetApplicationRequest;
+import org.cloudfoundry.client.v2.events.EventEntity;
+import org.cloudfoundry.client.v2.events.EventResource;
+import org.cloudfoundry.client.v2.events.ListEventsRequest;
+import org.cloudfoundry.client.v2.organizations.ListOrganizationsRequest;
+import org.cloudfoundry.client.v2.spaces.ListSpaceApplicationsRequest;
+import org.cloudfoundry.client.v2.spaces.ListSpacesRequest;
+import org.cloudfoundry.operations.DefaultCloudFoundryOperations;
+import org.cloudfoundry.operations.services.ServiceInstanceSummary;
+import org.cloudfoundry.util.PaginationUtils;
+import org.cloudfoundry.util.ResourceUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+// org, space, app and service listings cached for cf.listings.ttl seconds, per org or space targeted.
+// rows stream out as pages arrive, later pages are fetched cf.listings.concurrency at a time.
+// apps are re-synced from the space's app events since the last sync instead of re-paging every app
+@Component
+@Lazy
+public class Listings {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Listings.class);
+
+    private static final List<String> APP_EVENTS = Arrays.asList("audit.app.create", "audit.app.update",
+            "audit.app.delete-request", "audit.app.start", "audit.app.stop", "audit.app.restage");
+    private static final String DELETED = "audit.app.delete-request";
+    // past this many events since the last sync a full re-list is cheaper
+    private static final int MAX_EVENTS = 200;
+    private static final int RESULTS_PER_PAGE = 100;
+    // watermark when the space has no events yet
+    private static final String EPOCH = "1970-01-01T00:00:00Z";
+
+    private Targets targets;
+    private CloudFoundryClient client;
+    private Duration ttl;
+    private int concurrency;
+
+    private final Cached<List<String>> orgs;
+    // spaces by org, services and apps by org and space
+    private final Map<String, Cached<List<String>>> spaces = new ConcurrentHashMap<>();
+    private final Map<String, Cached<List<String>>> services = new ConcurrentHashMap<>();
+    private final Map<String, Cached<Apps>> apps = new ConcurrentHashMap<>();
+
+    public Listings(@Autowired Targets targets,
+                    @Autowired CloudFoundryClient client,
+                    @Autowired CfProperties properties) {
+        this.targets = targets;
+        this.client = client;
+        this.ttl = Duration.ofSeconds(properties.getListings().getTtl());
+        this.concurrency = properties.getListings().getConcurrency();
+        this.orgs = new Cached<>(this.ttl);
+    }
+
+    public Flux<String> orgs() {
+        return names(orgs, () -> Pages.concurrently(page -> client.organizations()
+                .list(ListOrganizationsRequest.builder()
+                        .page(page)
+                        .resultsPerPage(RESULTS_PER_PAGE)
+                        .build()), concurrency)
+                .map(resource -> ResourceUtils.getEntity(resource).getName()));
+    }
+
+    public Flux<String> spaces() {
+        DefaultCloudFoundryOperations cf = targets.current();
+        return names(cached(spaces, cf.getOrganization()), () -> cf.getOrganizationId().flatMapMany(organizationId -> Pages.concurrently(page -> client
+                .spaces()
+                .list(ListSpacesRequest.builder()
+                        .organizationId(organizationId)
+                        .page(page)
+                        .resultsPerPage(RESULTS_PER_PAGE)
+                        .build()), concurrency))
+                .map(resource -> ResourceUtils.getEntity(resource).getName()));
+    }
+
+    // one space summary call, nothing to page
+    public Flux<String> services() {
+        DefaultCloudFoundryOperations cf = targets.current();
+        return names(cached(services, Targets.key(cf)), () -> cf.services().listInstances().map(ServiceInstanceSummary::getName));
+    }
+
+    // names and space are filtered by the cloud controller, prefix and state on the way out
+    public Flux<App> apps(AppFilter filter) {
+        DefaultCloudFoundryOperations cf = targets.current();
+        if (filter.isServerSide()) {
+            return (filter.space.isEmpty() ? cf.getSpaceId() : spaceId(cf, filter.space))
+                    .flatMapMany(spaceId -> appPages(spaceId, filter.names))
+                    .map(App::of)
+                    .filter(filter);
+        }
+        Cached<Apps> apps = cached(this.apps, Targets.key(cf));
+        return Flux.defer(() -> {
+            Apps fresh = apps.fresh();
+            if (fresh != null) {
+                return Flux.fromIterable(fresh.sorted());
+            }
+            Apps last = apps.last();
+            if (last != null) {
+                return syncApps(cf.getSpaceId(), last).doOnNext(apps::put).flatMapIterable(Apps::sorted);
+            }
+            // cold: stream the full listing and keep it for the next sync
+            return cf.getSpaceId().flatMapMany(spaceId -> latestEvent(spaceId).flatMapMany(watermark -> {
+                Map<String, App> listed = new ConcurrentHashMap<>();
+                return appPages(spaceId, Collections.emptyList())
+                        .map(App::of)
+                        .doOnNext(app -> listed.put(app.id, app))
+                        .doOnComplete(() -> apps.put(new Apps(listed, watermark, Collections.emptySet())));
+            }));
+        }).filter(filter);
+    }
+
+    // apps changed, e.g. a push from this shell finished, the next listing syncs from events
+    public void invalidateApps() {
+        apps.values().forEach(Cached::invalidate);
+    }
+
+    // forget everything, the next listings are full re-lists
+    public void clear() {
+        orgs.clear();
+        spaces.clear();
+        services.clear();
+        apps.clear();
+    }
+
+    private <T> Cached<T> cached(Map<String, Cached<T>> caches, String key) {
+        return caches.computeIfAbsent(key, k -> new Cached<>(ttl));
+    }
+
+    // cached names when fresh, otherwise the live listing as it arrives, kept sorted once complete
+    private static Flux<String> names(Cached<List<String>> cached, Supplier<Flux<String>> live) {
+        return Flux.defer(() -> {
+            List<String> fresh = cached.fresh();
+            if (fresh != null) {
+                return Flux.fromIterable(fresh);
+            }
+            List<String> listed = Collections.synchronizedList(new ArrayList<>());
+            return live.get()
+                    .doOnNext(listed::add)
+                    .doOnComplete(() -> {
+                        List<String> sorted = new ArrayList<>(listed);
+                        Collections.sort(sorted);
+                        cached.put(sorted);
+                    });
+        });
+    }
+
+    private Flux<ApplicationResource> appPages(String spaceId, List<String> names) {
+        return Pages.concurrently(page -> client.spaces()
+                .listApplications(ListSpaceApplicationsRequest.builder()
+                        .spaceId(spaceId)
+                        .names(names)
+                        .page(page)
+                        .resultsPerPage(RESULTS_PER_PAGE)
+                        .build()), concurrency);
+    }
+
+    // the watermark is read before listing so no change can fall between the two
+    private Mono<Apps> listApps(Mono<String> targetSpaceId) {
+        return targetSpaceId.flatMap(spaceId -> latestEvent(spaceId)
+                .flatMap(watermark -> appPages(spaceId, Collections.emptyList())
+                        .map(App::of)
+                        .collectMap(app -> app.id)
+                        .map(apps -> new Apps(apps, watermark, Collections.emptySet()))));
+    }
+
+    private Mono<String> latestEvent(String spaceId) {
+        return client.events()
+                .list(ListEventsRequest.builder()
+                        .spaceId(spaceId)
+                        .orderDirection(OrderDirection.DESCENDING)
+                        .resultsPerPage(1)
+                        .page(1)
+                        .build())
+                .flatMapMany(ResourceUtils::getResources)
+                .next()
+                .map(event -> ResourceUtils.getEntity(event).getTimestamp())
+                .defaultIfEmpty(EPOCH);
+    }
+
+    private Mono<String> spaceId(DefaultCloudFoundryOperations cf, String space) {
+        return cf.getOrganizationId().flatMap(organizationId -> client.spaces()
+                .list(ListSpacesRequest.builder()
+                        .organizationId(organizationId)
+                        .name(space)
+                        .page(1)
+                        .build()))
+                .flatMapMany(ResourceUtils::getResources)
+                .next()
+                .map(ResourceUtils::getId)
+                .switchIfEmpty(Mono.defer(() -> Mono.error(new IllegalArgumentException("no space " + space))));
+    }
+
+    // replays app events at or after the watermark, fetching only the apps they name
+    private Mono<Apps> syncApps(Mono<String> targetSpaceId, Apps previous) {
+        return targetSpaceId.flatMap(spaceId -> PaginationUtils.requestClientV2Resources(page -> client.events()
+                .list(ListEventsRequest.builder()
+                        .spaceId(spaceId)
+                        .timestamp(previous.watermark)
+                        .types(APP_EVENTS)
+                        .page(page)
+                        .resultsPerPage(RESULTS_PER_PAGE)
+                        .build()))
+                .take(MAX_EVENTS + 1)
+                .filter(event -> !previous.seen.contains(ResourceUtils.getId(event)))
+                .collectList()
+                .flatMap(events -> {
+                    if (events.size() > MAX_EVENTS) {
+                        LOGGER.debug("{}+ app events since {}, listing all apps", MAX_EVENTS, previous.watermark);
+                        return listApps(targetSpaceId);
+                    }
+                    return apply(previous, events);
+                }))
+                .onErrorResume(e -> {
+                    LOGGER.debug("app event sync failed, listing all apps: {}", e.getMessage());
+                    return listApps(targetSpaceId);
+                });
+    }
+
+    // timestamps only have second precision, so events at the watermark are remembered and skipped next time
+    private Mono<Apps> apply(Apps previous, List<EventResource> events) {
+        String watermark = events.stream()
+                .map(event -> event.getEntity().getTimestamp())
+                .max(String::compareTo)
+                .orElse(previous.watermark);
+        Set<String> seen = new HashSet<>();
+        if (watermark.equals(previous.watermark)) {
+            seen.addAll(previous.seen);
+        }
+        Map<String, Boolean> deleted = new HashMap<>();
+        for (EventResource event : events) {
+            EventEntity entity = event.getEntity();
+            deleted.merge(entity.getActee(), DELETED.equals(entity.getType()), Boolean::logicalOr);
+            if (watermark.equals(entity.getTimestamp())) {
+                seen.add(ResourceUtils.getId(event));
+            }
+        }
+        Map<String, App> apps = new HashMap<>(previous.apps);
+        return Flux.fromIterable(deleted.entrySet())
+                .flatMap(actee -> actee.getValue()
+                        ? Mono.just(new Change(actee.getKey(), null))
+                        : client.applicationsV2()
+                        .get(GetApplicationRequest.builder().applicationId(actee.getKey()).build())
+                        .map(resource -> new Change(actee.getKey(), App.of(ResourceUtils.getId(resource),
+                                ResourceUtils.getEntity(resource))))
+                        .onErrorResume(ClientV2Exception.class, e -> Mono.just(new Change(actee.getKey(), null))), 8)
+                .doOnNext(change -> {
+                    if (change.app == null) {
+                        apps.remove(change.id);
+                    } else {
+                        apps.put(change.id, change.app);
+                    }
+                })
+                .then(Mono.fromSupplier(() -> new Apps(apps, watermark, seen)));
+    }
+
+    public static class App {
+        private final String id;
+        private final String name;
+        private final String state;
+
+        private App(String id, String name, String state) {
+            this.id = id;
+            this.name = name;
+            this.state = state;
+        }
+
+        private static App of(ApplicationResource resource) {
+            return of(ResourceUtils.getId(resource), ResourceUtils.getEntity(resource));
+        }
+
+        private static App of(String id, ApplicationEntity entity) {
+            return new App(id, entity.getName(), entity.getState());
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getState() {
+            return state;
+        }
+    }
+
+    // exact names and another space are sent to the cloud controller, a name prefix and state are not
+    // filterable there and are applied to rows as they stream past
+    public static class AppFilter implements Predicate<App> {
+        private final List<String> names;
+        private final String space;
+        private final String prefix;
+        private final String state;
+
+        public AppFilter(List<String> names, String space, String prefix, String state) {
+            this.names = names;
+            this.space = space;
+            this.prefix = prefix;
+            this.state = state;
+        }
+
+        public static AppFilter all() {
+            return new AppFilter(Collections.emptyList(), "", "", "");
+        }
+
+        private boolean isServerSide() {
+            return !names.isEmpty() || !space.isEmpty();
+        }
+
+        @Override
+        public boolean test(App app) {
+            return app.name.startsWith(prefix) && (state.isEmpty() || state.equalsIgnoreCase(app.state));
+        }
+    }
+
+    private static class Apps {
+        private final Map<String, App> apps;
+        private final String watermark;
+        // ids of the events at the watermark already applied
+        private final Set<String> seen;
+
+        private Apps(Map<String, App> apps, String watermark, Set<String> seen) {
+            this.apps = Collections.unmodifiableMap(apps);
+            this.watermark = watermark;
+            this.seen = seen;
+        }
+
+        private List<App> sorted() {
+            List<App> sorted = new ArrayList<>(apps.values());
+            sorted.sort((a, b) -> a.name.compareTo(b.name));
+            return sorted;
+        }
+    }
+
+    private static class Change {
+        private final String id;
+        private final App app;
+
+        private Change(String id, App app) {
+            this.id = id;
+            this.app = app;
+        }
+    }
+
+    // a listing that is fresh for the ttl after it was put, the last one is kept past that to sync from
+    private static class Cached<T> {
+        private final Duration ttl;
+        private T value;
+        private long expiresAt;
+        private boolean stale;
+
+        private Cached(Duration ttl) {
+            this.ttl = ttl;
+        }
+
+        private synchronized T fresh() {
+            if (value == null || stale || System.nanoTime() - expiresAt > 0) {
+                return null;
+            }
+            return value;
+        }
+
+        private synchronized T last() {
+            return value;
+        }
+
+        private synchronized void put(T value) {
+            this.value = value;
+            this.stale = false;
+            this.expiresAt = System.nanoTime() + ttl.toNanos();
+        }
+
+        private synchronized void invalidate() {
+            stale = true;
+        }
+
+        private synchronized void clear() {
+            value = null;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package io.todos.cf.cfclient;
+
+import org.cloudfoundry.doppler.LogMessage;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+
+import java.io.PrintWriter;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// the live logs of every app a deploy stages and starts, merged into one view with the app role in front of
+// each line. an app's stream opens once its create step succeeds, staging output is only sent while it is open.
+// streams only put lines in a bounded ring buffer that the shell thread writes out, a full buffer drops its
+// oldest lines, so a chatty app can't stall the shell nor the event loop the deploy's calls share. the app's
+// steps and its first staging, cell and app line are marked with their time, to show where startup time goes
+final class LogFollower implements StepListener {
+
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss.SSS")
+            .withZone(ZoneId.systemDefault());
+    // [<foundation>/]<app>:<step>
+    private static final Pattern STEP = Pattern.compile("^(?:([^/:]+)/)?([^/:]+):(.+)$");
+    // the steps that are a phase of an app, bind, map and the like are left out
+    private static final Set<String> PHASES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "create", "configure", "upload", "start", "restart", "running",
+            "next:create", "next:upload", "next:start", "next:running", "switch", "retire")));
+    // log source types by the phase they mark
+    private static final String STAGING = "STG";
+    private static final String CELL = "CELL";
+    private static final String APP = "APP";
+
+    private final Map<String, String> roles = new HashMap<>();
+    // executor of a foundation by name, "" for the target
+    private final Function<String, TopologyExecutor> executors;
+    private final BlockingQueue<String> lines;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Disposable.Composite streams = Disposables.composite();
+    private final Set<String> opened = ConcurrentHashMap.newKeySet();
+    // prefix -> phase -> when it began, in the order they did
+    private final Map<String, Map<String, Instant>> phases = new ConcurrentHashMap<>();
+    private final Instant startedAt = Instant.now();
+
+    LogFollower(Topology topology, Function<String, TopologyExecutor> executors, int buffer) {
+        for (Topology.App app : topology.getApps()) {
+            roles.put(app.getName(), app.getRole());
+        }
+        this.executors = executors;
+        this.lines = new ArrayBlockingQueue<>(Math.max(1, buffer));
+    }
+
+    @Override
+    public void started(String step) {
+        mark(step, "started");
+    }
+
+    @Override
+    public void succeeded(String step) {
+        Matcher matcher = match(step);
+        if (matcher == null) {
+            return;
+        }
+        mark(step, "done");
+        String foundation = matcher.group(1) == null ? "" : matcher.group(1);
+        String name = matcher.group(2);
+        switch (matcher.group(3)) {
+            case "create":
+            case "configure":
+                open(foundation, name);
+                break;
+            case "next:create":
+                open(foundation, name + "-next");
+                break;
+            default:
+        }
+    }
+
+    @Override
+    public void failed(String step, Throwable error) {
+        mark(step, "failed: " + error.getMessage());
+    }
+
+    // writes the lines on the calling thread until the job is done, then the time each app's phases began
+    void follow(Job job, PrintWriter out) throws InterruptedException {
+        long reported = System.nanoTime();
+        try {
+            while (!job.isDone()) {
+                String line = lines.poll(100, TimeUnit.MILLISECONDS);
+                if (line != null) {
+                    out.println(line);
+                }
+                // once a second at most, a drop note per line would only add to what the shell can't keep up with
+                if (System.nanoTime() - reported > TimeUnit.SECONDS.toNanos(1)) {
+                    reported = System.nanoTime();
+                    dropped(out);
+                }
+                out.flush();
+            }
+        } finally {
+            streams.dispose();
+        }
+        for (String line = lines.poll(); line != null; line = lines.poll()) {
+            out.println(line);
+        }
+        dropped(out);
+        new TreeMap<>(phases).forEach((prefix, began) -> {
+            StringBuilder summary = new StringBuilder(String.format("%-16s", prefix));
+            synchronized (began) {
+                began.forEach((phase, at) -> summary.append(String.format(" %s +%.1fs", phase, seconds(at))));
+            }
+            out.println(summary);
+        });
+        out.flush();
+    }
+
+    private void dropped(PrintWriter out) {
+        long lost = dropped.getAndSet(0);
+        if (lost > 0) {
+            out.println(String.format("-- %d log lines dropped, the shell fell behind", lost));
+        }
+    }
+
+    private void open(String foundation, String name) {
+        String prefix = prefix(foundation, name.replaceAll("-next$", ""));
+        if (prefix == null || !opened.add(foundation + "/" + name)) {
+            return;
+        }
+        streams.add(executors.apply(foundation).logs(name)
+                .subscribe(message -> line(prefix, message),
+                        error -> add(marker(Instant.now(), prefix, "no logs: " + error.getMessage()))));
+    }
+
+    private void line(String prefix, LogMessage message) {
+        String source = message.getSourceType() == null ? "" : message.getSourceType();
+        String phase = source.startsWith(STAGING) ? "staging" : source.startsWith(CELL) ? "cell"
+                : source.startsWith(APP) ? "app" : null;
+        if (phase != null) {
+            Instant at = message.getTimestamp() == null ? Instant.now()
+                    : Instant.ofEpochSecond(0, message.getTimestamp());
+            if (began(prefix, phase, at)) {
+                add(marker(at, prefix, phase + " output begins"));
+            }
+        }
+        add(String.format("[%s] %s/%s %s %s", prefix, source, message.getSourceInstance(),
+                message.getMessageType(), message.getMessage()));
+    }
+
+    private void mark(String step, String what) {
+        Matcher matcher = match(step);
+        if (matcher == null) {
+            return;
+        }
+        String prefix = prefix(matcher.group(1) == null ? "" : matcher.group(1), matcher.group(2));
+        Instant now = Instant.now();
+        if (what.equals("started")) {
+            began(prefix, matcher.group(3), now);
+        }
+        add(marker(now, prefix, matcher.group(3) + " " + what));
+    }
+
+    // null when the step isn't a phase of one of the apps
+    private Matcher match(String step) {
+        Matcher matcher = STEP.matcher(step);
+        if (!matcher.matches() || !roles.containsKey(matcher.group(2)) || !PHASES.contains(matcher.group(3))) {
+            return null;
+        }
+        return matcher;
+    }
+
+    private String prefix(String foundation, String name) {
+        String role = roles.get(name);
+        if (role == null) {
+            return null;
+        }
+        return foundation.isEmpty() ? role : foundation + "/" + role;
+    }
+
+    // true the first time the phase begins
+    private boolean began(String prefix, String phase, Instant at) {
+        Map<String, Instant> began = phases.computeIfAbsent(prefix,
+                key -> Collections.synchronizedMap(new LinkedHashMap<>()));
+        return began.putIfAbsent(phase, at) == null;
+    }
+
+    // a full buffer gives up its oldest line for the new one
+    private void add(String line) {
+        while (!lines.offer(line)) {
+            if (lines.poll() != null) {
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    private String marker(Instant at, String prefix, String what) {
+        return String.format("-- %s +%.1fs [%s] %s", TIME.format(at), seconds(at), prefix, what);
+    }
+
+    private double seconds(Instant at) {
+        return Duration.between(startedAt, at).toMillis() / 1000.0;
+    }
+}
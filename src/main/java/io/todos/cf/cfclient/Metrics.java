@@ -0,0 +1,254 @@
+package io.todos.cf.cfclient;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+// latency of every cloud foundry call and deploy step, by operation and app role,
+// along with gauges such as connection pool usage
+@Component
+public class Metrics {
+
+    // subscriber context key carrying the app role a call is made for
+    public static final String ROLE = "todos.role";
+    // role of calls made outside a deploy, e.g. the list commands
+    public static final String SHELL = "shell";
+
+    private final ConcurrentMap<Key, LatencyHistogram> timers = new ConcurrentHashMap<>();
+    private final Map<String, IntSupplier> gauges = new ConcurrentSkipListMap<>();
+
+    // where the metrics command exports to when no file is given
+    @Value("${metrics.export:${user.home}/.todos/metrics.prom}")
+    String export;
+
+    public <T> Mono<T> time(String operation, String role, Mono<T> call) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return call.doOnSuccess(value -> record(operation, role, start, false))
+                    .doOnError(error -> record(operation, role, start, true));
+        });
+    }
+
+    public <T> Flux<T> time(String operation, String role, Flux<T> call) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            return call.doOnComplete(() -> record(operation, role, start, false))
+                    .doOnError(error -> record(operation, role, start, true));
+        });
+    }
+
+    // role is read from the subscriber context at subscription time
+    public <T> Mono<T> time(String operation, Mono<T> call) {
+        return Mono.subscriberContext()
+                .flatMap(context -> time(operation, context.getOrDefault(ROLE, SHELL), call));
+    }
+
+    public <T> Flux<T> time(String operation, Flux<T> call) {
+        return Mono.subscriberContext()
+                .flatMapMany(context -> time(operation, context.getOrDefault(ROLE, SHELL), call));
+    }
+
+    // a value read whenever metrics are shown or exported
+    public void gauge(String name, IntSupplier value) {
+        gauges.put(name, value);
+    }
+
+    // clears the timers, gauges are current values and stay
+    public void reset() {
+        timers.clear();
+    }
+
+    public Map<String, Integer> gauges() {
+        Map<String, Integer> gauges = new LinkedHashMap<>();
+        this.gauges.forEach((name, value) -> gauges.put(name, value.getAsInt()));
+        return gauges;
+    }
+
+    public List<Timer> timers() {
+        List<Timer> timers = new ArrayList<>();
+        this.timers.forEach((key, histogram) -> timers.add(new Timer(key.operation, key.role, histogram)));
+        timers.sort((a, b) -> Long.compare(b.histogram.getSum(), a.histogram.getSum()));
+        return timers;
+    }
+
+    public String table() {
+        StringBuilder table = new StringBuilder(String.format("%-40s %-8s %7s %6s %9s %9s %9s %9s %10s",
+                "operation", "role", "count", "errors", "p50 ms", "p95 ms", "p99 ms", "max ms", "total s"));
+        for (Timer timer : timers()) {
+            LatencyHistogram histogram = timer.histogram;
+            table.append('\n').append(String.format("%-40s %-8s %7d %6d %9.1f %9.1f %9.1f %9.1f %10.1f",
+                    timer.operation, timer.role, histogram.getCount(), histogram.getErrors(),
+                    millis(histogram.percentile(0.50)), millis(histogram.percentile(0.95)),
+                    millis(histogram.percentile(0.99)), millis(histogram.getMax()),
+                    histogram.getSum() / 1_000_000.0));
+        }
+        Map<String, Integer> gauges = gauges();
+        if (!gauges.isEmpty()) {
+            table.append('\n').append('\n').append(String.format("%-40s %7s", "gauge", "value"));
+            gauges.forEach((name, value) -> table.append('\n').append(String.format("%-40s %7d", name, value)));
+        }
+        return table.toString();
+    }
+
+    public String prometheus() {
+        StringBuilder text = new StringBuilder();
+        text.append("# TYPE todos_cf_call_seconds summary\n");
+        for (Timer timer : timers()) {
+            LatencyHistogram histogram = timer.histogram;
+            String labels = "operation=\"" + timer.operation + "\",role=\"" + timer.role + "\"";
+            for (double quantile : new double[]{0.5, 0.95, 0.99}) {
+                text.append("todos_cf_call_seconds{").append(labels).append(",quantile=\"").append(quantile)
+                        .append("\"} ").append(seconds(histogram.percentile(quantile))).append('\n');
+            }
+            text.append("todos_cf_call_seconds_count{").append(labels).append("} ")
+                    .append(histogram.getCount()).append('\n');
+            text.append("todos_cf_call_seconds_sum{").append(labels).append("} ")
+                    .append(seconds(histogram.getSum())).append('\n');
+        }
+        text.append("# TYPE todos_cf_call_seconds_max gauge\n");
+        for (Timer timer : timers()) {
+            text.append("todos_cf_call_seconds_max{operation=\"").append(timer.operation)
+                    .append("\",role=\"").append(timer.role).append("\"} ")
+                    .append(seconds(timer.histogram.getMax())).append('\n');
+        }
+        text.append("# TYPE todos_cf_call_errors_total counter\n");
+        for (Timer timer : timers()) {
+            text.append("todos_cf_call_errors_total{operation=\"").append(timer.operation)
+                    .append("\",role=\"").append(timer.role).append("\"} ")
+                    .append(timer.histogram.getErrors()).append('\n');
+        }
+        gauges().forEach((name, value) -> {
+            String metric = "todos_cf_" + name.replaceAll("[^A-Za-z0-9_]", "_");
+            text.append("# TYPE ").append(metric).append(" gauge\n");
+            text.append(metric).append(' ').append(value).append('\n');
+        });
+        return text.toString();
+    }
+
+    public String json() {
+        List<Map<String, Object>> timers = new ArrayList<>();
+        for (Timer timer : timers()) {
+            LatencyHistogram histogram = timer.histogram;
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("operation", timer.operation);
+            json.put("role", timer.role);
+            json.put("count", histogram.getCount());
+            json.put("errors", histogram.getErrors());
+            json.put("p50Ms", millis(histogram.percentile(0.50)));
+            json.put("p95Ms", millis(histogram.percentile(0.95)));
+            json.put("p99Ms", millis(histogram.percentile(0.99)));
+            json.put("maxMs", millis(histogram.getMax()));
+            json.put("totalMs", millis(histogram.getSum()));
+            timers.add(json);
+        }
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("timers", timers);
+        json.put("gauges", gauges());
+        try {
+            return new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValueAsString(json);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // json when the file ends with .json, prometheus text otherwise
+    public Path export(String file) {
+        Path path = Paths.get(file.isEmpty() ? export : file);
+        String content = path.toString().endsWith(".json") ? json() : prometheus();
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            Path temp = Files.createTempFile(path.getParent() != null ? path.getParent() : Paths.get("."),
+                    path.getFileName().toString(), ".tmp");
+            Files.write(temp, content.getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return path;
+    }
+
+    private void record(String operation, String role, long start, boolean failed) {
+        timers.computeIfAbsent(new Key(operation, role), key -> new LatencyHistogram())
+                .record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start), failed);
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    private static double seconds(long micros) {
+        return micros / 1_000_000.0;
+    }
+
+    public static class Timer {
+        private final String operation;
+        private final String role;
+        private final LatencyHistogram histogram;
+
+        private Timer(String operation, String role, LatencyHistogram histogram) {
+            this.operation = operation;
+            this.role = role;
+            this.histogram = histogram;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public String getRole() {
+            return role;
+        }
+
+        public LatencyHistogram getHistogram() {
+            return histogram;
+        }
+    }
+
+    private static class Key {
+        private final String operation;
+        private final String role;
+
+        private Key(String operation, String role) {
+            this.operation = operation;
+            this.role = role;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return operation.equals(key.operation) && role.equals(key.role);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(operation, role);
+        }
+    }
+}
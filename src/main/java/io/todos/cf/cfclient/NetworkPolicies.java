@@ -0,0 +1,139 @@
+package io.todos.cf.cfclient;
+
+import org.cloudfoundry.networking.NetworkingClient;
+import org.cloudfoundry.networking.v1.policies.CreatePoliciesRequest;
+import org.cloudfoundry.networking.v1.policies.DeletePoliciesRequest;
+import org.cloudfoundry.networking.v1.policies.Destination;
+import org.cloudfoundry.networking.v1.policies.ListPoliciesRequest;
+import org.cloudfoundry.networking.v1.policies.Policy;
+import org.cloudfoundry.networking.v1.policies.Ports;
+import org.cloudfoundry.networking.v1.policies.Source;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+// the container to container policies a stack needs. an app whose env points at another app's route on an
+// explicit port, e.g. edge at http://<tag>-todos-api.apps.internal:8080, talks to its containers directly
+// instead of through the gorouter, which the policy server only lets through once a policy allows it.
+// creating a policy that exists is a no-op, so a deploy sends all of them in one call
+final class NetworkPolicies {
+
+    private static final String TCP = "tcp";
+    // gorouter urls never carry the app port
+    private static final Pattern DIRECT = Pattern.compile("^[a-z]+://([^/:]+):(\\d+)");
+
+    private final NetworkingClient networkingClient;
+
+    NetworkPolicies(NetworkingClient networkingClient) {
+        this.networkingClient = networkingClient;
+    }
+
+    static List<Allowed> derive(Topology topology) {
+        List<Allowed> allowed = new ArrayList<>();
+        for (Topology.App source : topology.getApps()) {
+            for (String value : source.getEnv().values()) {
+                Matcher direct = DIRECT.matcher(value);
+                if (!direct.find()) {
+                    continue;
+                }
+                for (Topology.App destination : topology.getApps()) {
+                    if (destination != source && destination.getFinalRoutes().stream()
+                            .anyMatch(route -> route.toString().equals(direct.group(1)))) {
+                        allowed.add(new Allowed(source.getName(), destination.getName(),
+                                Integer.parseInt(direct.group(2))));
+                    }
+                }
+            }
+        }
+        return allowed;
+    }
+
+    Mono<Void> create(List<Allowed> allowed, Map<String, String> applicationIds) {
+        if (allowed.isEmpty()) {
+            return Mono.empty();
+        }
+        return networkingClient.policies()
+                .create(CreatePoliciesRequest.builder()
+                        .policies(allowed.stream()
+                                .map(policy -> policy(applicationIds.get(policy.getSource()),
+                                        applicationIds.get(policy.getDestination()), policy.getPort()))
+                                .collect(Collectors.toList()))
+                        .build());
+    }
+
+    // policies from or to any of the apps
+    Flux<Policy> list(Collection<String> applicationIds) {
+        if (applicationIds.isEmpty()) {
+            return Flux.empty();
+        }
+        return networkingClient.policies()
+                .list(ListPoliciesRequest.builder()
+                        .policyGroupIds(applicationIds)
+                        .build())
+                .flatMapIterable(response -> response.getPolicies() == null
+                        ? new ArrayList<>() : response.getPolicies());
+    }
+
+    Mono<Void> delete(List<Policy> policies) {
+        if (policies.isEmpty()) {
+            return Mono.empty();
+        }
+        return networkingClient.policies()
+                .delete(DeletePoliciesRequest.builder()
+                        .policies(policies)
+                        .build());
+    }
+
+    static Policy policy(String sourceId, String destinationId, int port) {
+        return Policy.builder()
+                .source(Source.builder()
+                        .id(sourceId)
+                        .build())
+                .destination(Destination.builder()
+                        .id(destinationId)
+                        .protocol(TCP)
+                        .ports(Ports.builder()
+                                .start(port)
+                                .end(port)
+                                .build())
+                        .build())
+                .build();
+    }
+
+    // source app may reach destination app on port
+    static class Allowed {
+        private final String source;
+        private final String destination;
+        private final int port;
+
+        Allowed(String source, String destination, int port) {
+            this.source = source;
+            this.destination = destination;
+            this.port = port;
+        }
+
+        String getSource() {
+            return source;
+        }
+
+        String getDestination() {
+            return destination;
+        }
+
+        int getPort() {
+            return port;
+        }
+
+        @Override
+        public String toString() {
+            return source + " -> " + destination + ":" + port;
+        }
+    }
+}
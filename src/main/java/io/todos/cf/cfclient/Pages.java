@@ -0,0 +1,24 @@
+package io.todos.cf.cfclient;
+
+import org.cloudfoundry.client.v2.PaginatedResponse;
+import org.cloudfoundry.client.v2.Resource;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.function.Function;
+
+// pages through a v2 listing: the first page gives the page count, the rest are then fetched
+// concurrently and emitted in page order, so rows stream out as soon as the first page lands
+final class Pages {
+
+    private Pages() {
+    }
+
+    static <R extends Resource<?>, P extends PaginatedResponse<R>> Flux<R> concurrently(
+            Function<Integer, Mono<P>> page, int concurrency) {
+        return page.apply(1).flatMapMany(first -> Flux.fromIterable(first.getResources())
+                .concatWith(Flux.range(2, Math.max(0, first.getTotalPages() - 1))
+                        .flatMapSequential(next -> page.apply(next)
+                                .flatMapIterable(P::getResources), concurrency)));
+    }
+}
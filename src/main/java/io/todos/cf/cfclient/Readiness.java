@@ -0,0 +1,85 @@
+package io.todos.cf.cfclient;
+
+import org.cloudfoundry.client.CloudFoundryClient;
+import org.cloudfoundry.client.v2.ClientV2Exception;
+import org.cloudfoundry.client.v2.applications.ApplicationInstanceInfo;
+import org.cloudfoundry.client.v2.applications.ApplicationInstancesRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+// waits for every instance of a started app to be running. one instances call reports them all, polled
+// again soon while instances keep coming up and backing off while nothing changes, e.g. during staging
+final class Readiness {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Readiness.class);
+
+    private static final Duration MIN_DELAY = Duration.ofMillis(250);
+    private static final Duration MAX_DELAY = Duration.ofSeconds(10);
+    private static final double BACKOFF = 1.5;
+
+    // cloud controller codes while the app is not staged yet and when staging failed
+    private static final int NOT_STAGED = 170002;
+    private static final int STAGING_ERROR = 170004;
+    private static final List<String> FAILED = Arrays.asList("CRASHED", "FLAPPING");
+
+    private Readiness() {
+    }
+
+    static Mono<Void> running(CloudFoundryClient client, String applicationId, Duration timeout) {
+        return poll(client, applicationId, MIN_DELAY, 0)
+                .timeout(timeout, Mono.defer(() -> Mono.error(new TimeoutException(
+                        "app " + applicationId + " not running after " + timeout.getSeconds() + "s"))));
+    }
+
+    private static Mono<Void> poll(CloudFoundryClient client, String applicationId, Duration delay, int before) {
+        return runningInstances(client, applicationId)
+                .flatMap(running -> {
+                    if (running < 0) {
+                        return Mono.empty();
+                    }
+                    Duration next = running > before ? MIN_DELAY : backOff(delay);
+                    LOGGER.debug("app {} has {} running instances, polling again in {}ms", applicationId, running,
+                            next.toMillis());
+                    return Mono.delay(next).then(poll(client, applicationId, next, running));
+                });
+    }
+
+    // -1 once every instance runs, else how many do
+    private static Mono<Integer> runningInstances(CloudFoundryClient client, String applicationId) {
+        return client.applicationsV2()
+                .instances(ApplicationInstancesRequest.builder()
+                        .applicationId(applicationId)
+                        .build())
+                .map(response -> {
+                    Collection<ApplicationInstanceInfo> instances = response.getInstances().values();
+                    int running = 0;
+                    for (ApplicationInstanceInfo instance : instances) {
+                        if (FAILED.contains(instance.getState())) {
+                            throw new IllegalStateException("app " + applicationId + " instance "
+                                    + instance.getState().toLowerCase() + ": " + instance.getDetails());
+                        }
+                        if ("RUNNING".equals(instance.getState())) {
+                            running++;
+                        }
+                    }
+                    return !instances.isEmpty() && running == instances.size() ? -1 : running;
+                })
+                .onErrorResume(ClientV2Exception.class, e -> e.getCode() == NOT_STAGED
+                        ? Mono.just(0)
+                        : Mono.error(e.getCode() == STAGING_ERROR
+                        ? new IllegalStateException("app " + applicationId + " failed to stage: " + e.getDescription())
+                        : e));
+    }
+
+    private static Duration backOff(Duration delay) {
+        long next = (long) (delay.toMillis() * BACKOFF);
+        return next > MAX_DELAY.toMillis() ? MAX_DELAY : Duration.ofMillis(next);
+    }
+}
@@ -0,0 +1,176 @@
+package io.todos.cf.cfclient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+// the entries of a jar the platform doesn't have yet, as a zip that is never written out: the kept entries
+// are byte ranges of the jar, sent as they are without inflating or deflating them again, followed by a
+// central directory pointing at their new offsets. zip64 jars aren't supported, see ApplicationBits
+final class ResidualZip {
+
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int END_LENGTH = 22;
+    private static final int CENTRAL_LENGTH = 46;
+    private static final long ZIP64 = 0xFFFFFFFFL;
+
+    private final Path jar;
+    // position and length in the jar, adjacent entries merged
+    private final List<long[]> ranges;
+    private final ByteBuffer trailer;
+    private final int entries;
+
+    private ResidualZip(Path jar, List<long[]> ranges, ByteBuffer trailer, int entries) {
+        this.jar = jar;
+        this.ranges = ranges;
+        this.trailer = trailer;
+        this.entries = entries;
+    }
+
+    // reads only the central directory, the entries stay on disk
+    static ResidualZip of(Path jar, Set<String> excluded) throws IOException {
+        try (FileChannel channel = FileChannel.open(jar, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long endPosition = end(channel, size);
+            ByteBuffer end = read(channel, endPosition, END_LENGTH);
+            int count = end.getShort(10) & 0xFFFF;
+            long directoryLength = end.getInt(12) & ZIP64;
+            long directoryOffset = end.getInt(16) & ZIP64;
+            if (count == 0xFFFF || directoryOffset == ZIP64) {
+                throw new IOException(jar.getFileName() + " is a zip64 archive");
+            }
+            // bytes in front of the zip, e.g. a launch script, shift every offset
+            long prefix = endPosition - directoryLength - directoryOffset;
+            ByteBuffer directory = read(channel, prefix + directoryOffset, (int) directoryLength);
+
+            List<Entry> all = new ArrayList<>(count);
+            for (int position = 0; position < directoryLength; ) {
+                if (directory.getInt(position) != CENTRAL_SIGNATURE) {
+                    throw new IOException(jar.getFileName() + " has a corrupt central directory");
+                }
+                int length = CENTRAL_LENGTH + (directory.getShort(position + 28) & 0xFFFF)
+                        + (directory.getShort(position + 30) & 0xFFFF) + (directory.getShort(position + 32) & 0xFFFF);
+                long offset = directory.getInt(position + 42) & ZIP64;
+                if (offset == ZIP64 || (directory.getInt(position + 20) & ZIP64) == ZIP64) {
+                    throw new IOException(jar.getFileName() + " has zip64 entries");
+                }
+                byte[] name = new byte[directory.getShort(position + 28) & 0xFFFF];
+                slice(directory, position + CENTRAL_LENGTH, name.length).get(name);
+                all.add(new Entry(new String(name, StandardCharsets.UTF_8), prefix + offset, position, length));
+                position += length;
+            }
+            // an entry runs up to the next one, so data descriptors and local extras come along
+            all.sort(Comparator.comparingLong(entry -> entry.offset));
+            for (int i = 0; i < all.size(); i++) {
+                all.get(i).end = i + 1 < all.size() ? all.get(i + 1).offset : prefix + directoryOffset;
+            }
+
+            List<long[]> ranges = new ArrayList<>();
+            ByteBuffer trailer = ByteBuffer.allocate((int) directoryLength + END_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            long written = 0;
+            int kept = 0;
+            for (Entry entry : all) {
+                if (excluded.contains(entry.name)) {
+                    continue;
+                }
+                long[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+                if (last != null && last[0] + last[1] == entry.offset) {
+                    last[1] += entry.end - entry.offset;
+                } else {
+                    ranges.add(new long[]{entry.offset, entry.end - entry.offset});
+                }
+                int header = trailer.position();
+                trailer.put(slice(directory, entry.header, entry.length));
+                trailer.putInt(header + 42, (int) written);
+                written += entry.end - entry.offset;
+                kept++;
+            }
+            int trailerDirectory = trailer.position();
+            trailer.putInt(END_SIGNATURE)
+                    .putShort((short) 0)
+                    .putShort((short) 0)
+                    .putShort((short) kept)
+                    .putShort((short) kept)
+                    .putInt(trailerDirectory)
+                    .putInt((int) written)
+                    .putShort((short) 0);
+            trailer.flip();
+            return new ResidualZip(jar, ranges, trailer, kept);
+        }
+    }
+
+    Path getJar() {
+        return jar;
+    }
+
+    List<long[]> getRanges() {
+        return ranges;
+    }
+
+    // central directory and end record
+    ByteBuffer getTrailer() {
+        return trailer.duplicate();
+    }
+
+    int getEntries() {
+        return entries;
+    }
+
+    long length() {
+        return ranges.stream().mapToLong(range -> range[1]).sum() + trailer.remaining();
+    }
+
+    // where the end record starts, searched backwards past a trailing comment
+    private static long end(FileChannel channel, long size) throws IOException {
+        int window = (int) Math.min(size, END_LENGTH + 0xFFFF);
+        ByteBuffer tail = read(channel, size - window, window);
+        for (int position = window - END_LENGTH; position >= 0; position--) {
+            if (tail.getInt(position) == END_SIGNATURE) {
+                return size - window + position;
+            }
+        }
+        throw new IOException("no zip end record");
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(position);
+        slice.limit(position + length);
+        return slice;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of zip");
+            }
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private static class Entry {
+        private final String name;
+        private final long offset;
+        private final int header;
+        private final int length;
+        private long end;
+
+        private Entry(String name, long offset, int header, int length) {
+            this.name = name;
+            this.offset = offset;
+            this.header = header;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package io.todos.cf.cfclient;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.HttpResponse;
+import org.cloudfoundry.AbstractCloudFoundryException;
+import org.cloudfoundry.uaa.UaaException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.ipc.netty.NettyPipeline;
+import reactor.ipc.netty.channel.AbortedException;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// what every cloud controller call of one foundation goes through, see Instrumented:
+// a bulkhead per kind of call, so uploads and staging polls can't hold all the connections metadata calls need,
+// a pause while the platform says its rate limit is used up, a circuit breaker that fails calls fast while the
+// api keeps failing, and retries with exponential backoff and full jitter for transient failures. calls that
+// may have changed something are only retried when the platform didn't take them, e.g. a 429 or a refused connect
+public class Resilience {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Resilience.class);
+
+    private static final Set<String> UPLOADS = new HashSet<>(Arrays.asList(
+            "applicationsV2.upload", "applicationsV2.copy", "applicationsV2.uploadDroplet",
+            "packages.upload", "packages.copy", "droplets.copy", "buildpacks.upload"));
+    private static final Set<String> STAGING = new HashSet<>(Arrays.asList(
+            "applicationsV2.instances", "applicationsV2.statistics", "applicationsV2.restage",
+            "builds.create", "builds.get", "jobs.get"));
+    // methods that read, or put the same state again
+    private static final String[] IDEMPOTENT = {"get", "list", "summary", "instances", "statistics", "update",
+            "associate"};
+
+    private static final String RATE_LIMIT_REMAINING = "X-RateLimit-Remaining";
+    private static final String RATE_LIMIT_RESET = "X-RateLimit-Reset";
+    private static final String RETRY_AFTER = "Retry-After";
+
+    private final String name;
+    private final CallLimiter uploads;
+    private final CallLimiter staging;
+    private final CallLimiter metadata;
+    private final ChannelHandler rateLimitHeaders = new RateLimitHeaders();
+
+    private final int retries;
+    private final long backoffMs;
+    private final long maxBackoffMs;
+    // a used up hourly limit isn't waited out, calls fail once the pause would be longer than this
+    private final long maxPauseMs;
+    private final int breakerFailures;
+    private final long breakerCooldownMs;
+
+    // epoch millis calls wait for, 0 when the rate limit isn't used up
+    private final AtomicLong pausedUntil = new AtomicLong();
+    private volatile int rateLimitRemaining = -1;
+    private final AtomicInteger retried = new AtomicInteger();
+
+    // consecutive transient failures, the breaker opens at breakerFailures and lets one call through after
+    // the cooldown, which closes it again or keeps it open for another cooldown
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile long openUntil;
+    private final AtomicBoolean trial = new AtomicBoolean();
+    private final AtomicInteger opened = new AtomicInteger();
+
+    public Resilience(String name, CfProperties.ResilienceProperties settings) {
+        this.name = name;
+        this.uploads = new CallLimiter(settings.getUploads());
+        this.staging = new CallLimiter(settings.getStaging());
+        this.metadata = new CallLimiter(settings.getMetadata());
+        this.retries = settings.getRetries();
+        this.backoffMs = settings.getBackoffMs();
+        this.maxBackoffMs = settings.getMaxBackoffMs();
+        this.maxPauseMs = settings.getMaxPauseMs();
+        this.breakerFailures = settings.getBreakerFailures();
+        this.breakerCooldownMs = settings.getBreakerCooldownMs();
+    }
+
+    public <T> Mono<T> call(String operation, Supplier<? extends Mono<T>> call) {
+        boolean idempotent = idempotent(operation);
+        CallLimiter bulkhead = bulkhead(operation);
+        Supplier<Mono<T>> bulkheaded = () -> bulkhead.limit(() -> attempt(operation, call));
+        // a cap on the calls of a whole run, see CallLimiter.capCalls, is waited on before the bulkhead
+        return Mono.defer(() -> paused()
+                .then(Mono.subscriberContext())
+                .flatMap(context -> CallLimiter.of(context)
+                        .map(cap -> cap.limit(bulkheaded))
+                        .orElseGet(bulkheaded)))
+                .retryWhen(errors -> errors.zipWith(Flux.range(1, Integer.MAX_VALUE))
+                        .concatMap(failure -> {
+                            if (failure.getT2() > retries || !retryable(failure.getT1(), idempotent)) {
+                                return Mono.error(failure.getT1());
+                            }
+                            retried.incrementAndGet();
+                            LOGGER.debug("retrying {} on {} after {}", operation, name, failure.getT1().toString());
+                            return Mono.delay(backoff(failure.getT2()));
+                        }));
+    }
+
+    // reads the rate limit headers of every response on the channel, see Context.connect
+    public void watch(Channel channel) {
+        if (channel.pipeline().get(NettyPipeline.ReactiveBridge) != null) {
+            channel.pipeline().addBefore(NettyPipeline.ReactiveBridge, "todos.rateLimitHeaders", rateLimitHeaders);
+        }
+    }
+
+    // gauges named <prefix>.uploads.active, <prefix>.breaker.open and so on
+    public void register(Metrics metrics, String prefix) {
+        metrics.gauge(prefix + ".uploads.active", uploads::inFlight);
+        metrics.gauge(prefix + ".uploads.queued", uploads::queued);
+        metrics.gauge(prefix + ".staging.active", staging::inFlight);
+        metrics.gauge(prefix + ".staging.queued", staging::queued);
+        metrics.gauge(prefix + ".metadata.active", metadata::inFlight);
+        metrics.gauge(prefix + ".metadata.queued", metadata::queued);
+        metrics.gauge(prefix + ".retries", retried::get);
+        metrics.gauge(prefix + ".breaker.open", () -> openUntil != 0 ? 1 : 0);
+        metrics.gauge(prefix + ".breaker.opened", opened::get);
+        metrics.gauge(prefix + ".rateLimit.remaining", () -> rateLimitRemaining);
+        metrics.gauge(prefix + ".rateLimit.pausedMs",
+                () -> (int) Math.max(0, pausedUntil.get() - System.currentTimeMillis()));
+    }
+
+    private <T> Mono<T> attempt(String operation, Supplier<? extends Mono<T>> call) {
+        boolean trialCall;
+        long until = openUntil;
+        if (until == 0) {
+            trialCall = false;
+        } else if (System.currentTimeMillis() >= until && trial.compareAndSet(false, true)) {
+            trialCall = true;
+        } else {
+            return Mono.error(new IllegalStateException("calls to " + name + " are stopped after "
+                    + breakerFailures + " failures in a row, " + operation + " not sent"));
+        }
+        return Mono.defer(call)
+                .doOnSuccess(result -> succeeded())
+                .doOnError(error -> failed(error, trialCall))
+                .doOnCancel(() -> {
+                    if (trialCall) {
+                        trial.set(false);
+                    }
+                });
+    }
+
+    private void succeeded() {
+        failures.set(0);
+        if (openUntil != 0) {
+            openUntil = 0;
+            trial.set(false);
+            LOGGER.info("calls to {} resumed", name);
+        }
+    }
+
+    // only the platform being unwell counts against the breaker. a 404 or 429 is an answer that leaves the
+    // breaker and the failures in a row as they are, a trial call that gets one lets the next call try instead
+    private void failed(Throwable error, boolean trialCall) {
+        if (!unavailable(error)) {
+            if (trialCall) {
+                trial.set(false);
+            }
+            return;
+        }
+        if (failures.incrementAndGet() >= breakerFailures || trial.get()) {
+            boolean opening = openUntil == 0;
+            openUntil = System.currentTimeMillis() + breakerCooldownMs;
+            trial.set(false);
+            if (opening) {
+                opened.incrementAndGet();
+                LOGGER.warn("calls to {} stopped for {} ms after {}", name, breakerCooldownMs, error.toString());
+            }
+        }
+    }
+
+    private Mono<Long> paused() {
+        long wait = pausedUntil.get() - System.currentTimeMillis();
+        if (wait <= 0) {
+            return Mono.empty();
+        }
+        // spread out so the queued calls don't all hit the new window at once
+        return Mono.delay(Duration.ofMillis(wait + ThreadLocalRandom.current().nextLong(backoffMs + 1)));
+    }
+
+    private void pause(long until, String reason) {
+        long now = System.currentTimeMillis();
+        if (until - now > maxPauseMs) {
+            LOGGER.debug("not pausing calls to {} for {} ms on {}", name, until - now, reason);
+            return;
+        }
+        if (pausedUntil.getAndAccumulate(until, Math::max) < now && until > now) {
+            LOGGER.info("pausing calls to {} for {} ms on {}", name, until - now, reason);
+        }
+    }
+
+    private Duration backoff(int attempt) {
+        long ceiling = Math.min(maxBackoffMs, backoffMs << Math.min(attempt - 1, 20));
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(ceiling + 1));
+    }
+
+    private CallLimiter bulkhead(String operation) {
+        if (UPLOADS.contains(operation)) {
+            return uploads;
+        }
+        if (STAGING.contains(operation)) {
+            return staging;
+        }
+        return metadata;
+    }
+
+    private static boolean idempotent(String operation) {
+        String method = operation.substring(operation.lastIndexOf('.') + 1);
+        for (String prefix : IDEMPOTENT) {
+            if (method.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean retryable(Throwable error, boolean idempotent) {
+        // the platform never saw these: rate limited, no connection or no token from an unwell uaa. a uaa
+        // that answered, e.g. invalid_grant for a wrong password, is asked once, retries could lock the user out
+        if (error instanceof ConnectException
+                || error instanceof AbstractCloudFoundryException
+                && ((AbstractCloudFoundryException) error).getStatusCode() == 429
+                || error instanceof UaaException && unavailable(error)) {
+            return true;
+        }
+        return idempotent && unavailable(error);
+    }
+
+    private static boolean unavailable(Throwable error) {
+        if (error instanceof AbstractCloudFoundryException) {
+            return ((AbstractCloudFoundryException) error).getStatusCode() >= 500;
+        }
+        return error instanceof IOException || error instanceof AbortedException;
+    }
+
+    private void observe(HttpResponse response) {
+        long now = System.currentTimeMillis();
+        String remaining = response.headers().get(RATE_LIMIT_REMAINING);
+        if (remaining != null) {
+            try {
+                rateLimitRemaining = Integer.parseInt(remaining.trim());
+                String reset = response.headers().get(RATE_LIMIT_RESET);
+                if (rateLimitRemaining == 0 && reset != null) {
+                    pause(Long.parseLong(reset.trim()) * 1000, "rate limit used up");
+                }
+            } catch (NumberFormatException e) {
+                LOGGER.debug("unreadable rate limit headers from {}: {}", name, e.getMessage());
+            }
+        }
+        // seconds, the http date form isn't sent by the cloud controller
+        String retryAfter = response.headers().get(RETRY_AFTER);
+        if (retryAfter != null && retryAfter.trim().matches("\\d+")) {
+            pause(now + Long.parseLong(retryAfter.trim()) * 1000, "retry after " + response.status().code());
+        }
+    }
+
+    @ChannelHandler.Sharable
+    private class RateLimitHeaders extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void channelRead(ChannelHandlerContext context, Object message) throws Exception {
+            if (message instanceof HttpResponse) {
+                observe((HttpResponse) message);
+            }
+            super.channelRead(context, message);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package io.todos.cf.cfclient;
+
+import org.cloudfoundry.util.ResourceMatchingUtils.ArtifactMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// on-disk index of per-entry sha1s for each jar, keyed by jar path, size and mtime. an index is parsed once
+// and kept while its key holds, so the digest and the upload of a push share one read
+@Component
+public class ResourceCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResourceCache.class);
+
+    // local folder holding one index file per jar
+    @Value("${jars.cache:${user.home}/.todos/resource-cache}")
+    String cacheFolder;
+    // hashes jars the index doesn't cover yet
+    private JarFingerprinter fingerprinter;
+    // the last index read or written per jar
+    private final Map<Path, Index> indexes = new ConcurrentHashMap<>();
+
+    public ResourceCache(@Autowired JarFingerprinter fingerprinter) {
+        this.fingerprinter = fingerprinter;
+    }
+
+    public List<ArtifactMetadata> fingerprints(Path jar) {
+        try {
+            Path jarPath = jar.toAbsolutePath().normalize();
+            String key = jarPath + "\t" + Files.size(jarPath) + "\t" + Files.getLastModifiedTime(jarPath).toMillis();
+            Index parsed = indexes.get(jarPath);
+            if (parsed != null && parsed.key.equals(key)) {
+                return parsed.fingerprints;
+            }
+            Path index = Paths.get(cacheFolder, sha1(jarPath.toString()) + ".idx");
+            List<ArtifactMetadata> fingerprints = read(index, key);
+            if (fingerprints != null) {
+                LOGGER.debug("{} fingerprints for {} read from {}", fingerprints.size(), jarPath, index);
+            } else {
+                fingerprints = fingerprinter.fingerprints(jarPath);
+                write(index, key, fingerprints);
+            }
+            Index read = new Index(key, Collections.unmodifiableList(fingerprints));
+            indexes.put(jarPath, read);
+            return read.fingerprints;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // first line is the key, a stale key means the jar changed and the index is rebuilt
+    private static List<ArtifactMetadata> read(Path index, String key) throws IOException {
+        if (!Files.exists(index)) {
+            return null;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(index, StandardCharsets.UTF_8)) {
+            if (!key.equals(reader.readLine())) {
+                return null;
+            }
+            List<ArtifactMetadata> fingerprints = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 4);
+                if (fields.length != 4) {
+                    return null;
+                }
+                fingerprints.add(new ArtifactMetadata(fields[0], fields[3], fields[2], Integer.parseInt(fields[1])));
+            }
+            return fingerprints;
+        }
+    }
+
+    private static void write(Path index, String key, List<ArtifactMetadata> fingerprints) throws IOException {
+        Files.createDirectories(index.getParent());
+        Path staging = Files.createTempFile(index.getParent(), "index-", ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(staging, StandardCharsets.UTF_8)) {
+            writer.write(key);
+            writer.newLine();
+            for (ArtifactMetadata fingerprint : fingerprints) {
+                writer.write(fingerprint.getHash() + "\t" + fingerprint.getSize() + "\t"
+                        + fingerprint.getPermissions() + "\t" + fingerprint.getPath());
+                writer.newLine();
+            }
+        }
+        Files.move(staging, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static class Index {
+        private final String key;
+        private final List<ArtifactMetadata> fingerprints;
+
+        private Index(String key, List<ArtifactMetadata> fingerprints) {
+            this.key = key;
+            this.fingerprints = fingerprints;
+        }
+    }
+
+    private static String sha1(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("sha1");
+            return String.format("%040x", new BigInteger(1, digest.digest(value.getBytes(StandardCharsets.UTF_8))));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package io.todos.cf.cfclient;
+
+import org.cloudfoundry.client.CloudFoundryClient;
+import org.cloudfoundry.client.v2.applications.AssociateApplicationRouteRequest;
+import org.cloudfoundry.client.v2.applications.RemoveApplicationRouteRequest;
+import org.cloudfoundry.client.v2.privatedomains.ListPrivateDomainsRequest;
+import org.cloudfoundry.client.v2.routes.CreateRouteRequest;
+import org.cloudfoundry.client.v2.shareddomains.ListSharedDomainsRequest;
+import org.cloudfoundry.client.v2.spaces.ListSpaceRoutesRequest;
+import org.cloudfoundry.util.ResourceUtils;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+// the routes of one deploy. an app gets the final routes of its topology straight to the app id the create
+// step got, so an internal app never has the public route it would otherwise map and unmap again. each domain
+// is looked up once, a route the space has already, e.g. from the last deploy, is reused rather than created
+final class RoutePlan {
+
+    private final CloudFoundryClient client;
+    private final Mono<String> spaceId;
+    private final Map<String, Mono<String>> domainIds = new ConcurrentHashMap<>();
+    // empty until the route is created
+    private final Map<String, Mono<Optional<String>>> routeIds = new ConcurrentHashMap<>();
+
+    RoutePlan(CloudFoundryClient client, Mono<String> spaceId) {
+        this.client = client;
+        this.spaceId = spaceId;
+    }
+
+    Mono<Void> map(String applicationId, Topology.Route route) {
+        return routeId(route)
+                .flatMap(existing -> existing.map(Mono::just).orElseGet(() -> create(route)))
+                .flatMap(routeId -> client.applicationsV2()
+                        .associateRoute(AssociateApplicationRouteRequest.builder()
+                                .applicationId(applicationId)
+                                .routeId(routeId)
+                                .build()))
+                .then();
+    }
+
+    // a route the space doesn't have isn't mapped to anything
+    Mono<Void> unmap(String applicationId, Topology.Route route) {
+        return routeId(route)
+                .flatMap(existing -> existing
+                        .map(routeId -> client.applicationsV2()
+                                .removeRoute(RemoveApplicationRouteRequest.builder()
+                                        .applicationId(applicationId)
+                                        .routeId(routeId)
+                                        .build()))
+                        .orElse(Mono.empty()));
+    }
+
+    private Mono<Optional<String>> routeId(Topology.Route route) {
+        return routeIds.computeIfAbsent(route.toString(), key -> Mono.zip(spaceId, domainId(route.getDomain()))
+                .flatMap(ids -> client.spaces()
+                        .listRoutes(ListSpaceRoutesRequest.builder()
+                                .spaceId(ids.getT1())
+                                .domainId(ids.getT2())
+                                .host(route.getHost())
+                                .page(1)
+                                .build()))
+                .flatMapMany(ResourceUtils::getResources)
+                .next()
+                .map(resource -> Optional.of(ResourceUtils.getId(resource)))
+                .defaultIfEmpty(Optional.empty())
+                .cache());
+    }
+
+    // the created route is what later maps in the deploy find
+    private Mono<String> create(Topology.Route route) {
+        Mono<String> created = Mono.zip(spaceId, domainId(route.getDomain()))
+                .flatMap(ids -> client.routes()
+                        .create(CreateRouteRequest.builder()
+                                .spaceId(ids.getT1())
+                                .domainId(ids.getT2())
+                                .host(route.getHost())
+                                .build()))
+                .map(ResourceUtils::getId)
+                .cache();
+        routeIds.put(route.toString(), created.map(Optional::of));
+        return created;
+    }
+
+    // shared domains first, apps.internal and the public domain usually are
+    private Mono<String> domainId(String domain) {
+        return domainIds.computeIfAbsent(domain, name -> client.sharedDomains()
+                .list(ListSharedDomainsRequest.builder()
+                        .name(name)
+                        .page(1)
+                        .build())
+                .flatMapMany(ResourceUtils::getResources)
+                .map(ResourceUtils::getId)
+                .next()
+                .switchIfEmpty(Mono.defer(() -> client.privateDomains()
+                        .list(ListPrivateDomainsRequest.builder()
+                                .name(name)
+                                .page(1)
+                                .build())
+                        .flatMapMany(ResourceUtils::getResources)
+                        .map(ResourceUtils::getId)
+                        .next()))
+                .switchIfEmpty(Mono.defer(() -> Mono.error(new IllegalArgumentException(
+                        "no domain " + name + " for the org"))))
+                .cache());
+    }
+}
@@ -1,29 +1,32 @@
 package io.todos.cf.cfclient;
 
-import org.cloudfoundry.operations.CloudFoundryOperations;
-import org.cloudfoundry.operations.applications.ApplicationSummary;
-import org.cloudfoundry.operations.applications.PushApplicationRequest;
-import org.cloudfoundry.operations.applications.SetEnvironmentVariableApplicationRequest;
-import org.cloudfoundry.operations.applications.StartApplicationRequest;
-import org.cloudfoundry.operations.organizations.OrganizationSummary;
-import org.cloudfoundry.operations.routes.MapRouteRequest;
-import org.cloudfoundry.operations.routes.UnmapRouteRequest;
-import org.cloudfoundry.operations.services.BindServiceInstanceRequest;
-import org.cloudfoundry.operations.services.ServiceInstanceSummary;
-import org.cloudfoundry.operations.spaces.SpaceSummary;
+import org.cloudfoundry.operations.DefaultCloudFoundryOperations;
+import org.jline.terminal.Terminal;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.shell.standard.ShellComponent;
 import org.springframework.shell.standard.ShellMethod;
 import org.springframework.shell.standard.ShellOption;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @Configuration
 @ShellComponent
@@ -31,658 +34,319 @@ public class ShellCommands {
     // local folder with 3 sample jars
     @Value("${jars.folder}")
     String jarsFolder;
-    // cf api
-    @Value("${cf.api}")
-    String cfApi;
-    // cf domain, default for public networking
-    @Value("${cf.domain}")
-    String cfDomain;
-    // cf default memory for apps
-    @Value("${cf.memory:1024}")
-    Integer cfMemory;
-    // cf operations API
-    private CloudFoundryOperations cf;
-
-    // autowire operations instance
-    public ShellCommands(@Autowired CloudFoundryOperations operations) {
-        this.cf = operations;
+    // target org and space, with their cf operations API
+    private Targets targets;
+    // todos stack variants
+    private Topologies topologies;
+    // runs topologies as a step graph
+    private TopologyExecutor executor;
+    // runs many topologies under one call cap
+    private Fleet fleet;
+    // other foundations to push to
+    private Foundations foundations;
+    // tracks background pushes
+    private Jobs jobs;
+    // call and step latencies
+    private Metrics metrics;
+    // cached listings
+    private Listings listings;
+    // list rows are printed as they arrive
+    private Terminal terminal;
+    // cf.follow.buffer, the log lines a push with follow holds for the terminal
+    private int followBuffer;
+
+    // autowire operations instance, cf clients are lazy and built on the first command that needs them
+    public ShellCommands(@Autowired @Lazy Targets targets,
+                         @Autowired Topologies topologies,
+                         @Autowired @Lazy TopologyExecutor executor,
+                         @Autowired @Lazy Fleet fleet,
+                         @Autowired @Lazy Foundations foundations,
+                         @Autowired Jobs jobs,
+                         @Autowired Metrics metrics,
+                         @Autowired @Lazy Listings listings,
+                         @Autowired @Lazy Terminal terminal,
+                         @Autowired CfProperties properties) {
+        this.targets = targets;
+        this.topologies = topologies;
+        this.executor = executor;
+        this.fleet = fleet;
+        this.foundations = foundations;
+        this.jobs = jobs;
+        this.metrics = metrics;
+        this.listings = listings;
+        this.terminal = terminal;
+        this.followBuffer = properties.getFollow().getBuffer();
     }
 
     @ShellMethod("push with api")
-    public void pushApp(
+    public String pushApp(
             @ShellOption(help = "tag for hostname") String tag,
-            @ShellOption(help = "version (ex: 1.0.0.RELEASE, 1.0.0.SNAP)", defaultValue = "1.0.0.SNAP") String version) {
-
-        if (tag.length() < 1) {
-            tag = UUID.randomUUID().toString().substring(0, 8);
-        }
+            @ShellOption(help = "version (ex: 1.0.0.RELEASE, 1.0.0.SNAP)", defaultValue = "1.0.0.SNAP") String version,
+            @ShellOption(help = "foundations to push to at once, when not the cf one (ex: east,west)", defaultValue = "") String foundations,
+            @ShellOption(help = "stream the apps' logs with their staging and start times until the push ends", defaultValue = "false") boolean follow) {
 
-        // push api
-        pushApplication(tag + "-todos-api",
-                Paths.get(jarsFolder + "/todos-api-" + version + ".jar"))
-                .then(cf.applications()
-                        .start(StartApplicationRequest.builder()
-                                .name(tag + "-todos-api").build())).subscribe();
-
-        // push webui
-        pushApplication(tag + "-todos-webui",
-                Paths.get(jarsFolder, "todos-webui-" + version + ".jar").toFile().toPath())
-                .then(cf.applications()
-                        .start(StartApplicationRequest.builder()
-                                .name(tag + "-todos-webui").build())).subscribe();
-
-        // push edge and manually config UI and API endpoints in edge's ENV
-        pushApplication(tag + "-todos-edge",
-                Paths.get(jarsFolder, "todos-edge-" + version + ".jar").toFile().toPath())
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-edge")
-                                .variableName("TODOS_UI_ENDPOINT")
-                                .variableValue("http://" + tag + "-todos-webui." + cfDomain)
-                                .build()))
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-edge")
-                                .variableName("TODOS_API_ENDPOINT")
-                                .variableValue("http://" + tag + "-todos-api." + cfDomain)
-                                .build()))
-                .then(cf.applications()
-                        .start(StartApplicationRequest.builder()
-                                .name(tag + "-todos-edge").build())).subscribe();
+        String stack = tag(tag);
+        return push("app", stack, foundations, follow, variants -> variants.app(stack, version));
     }
 
     @ShellMethod("push with private networking")
-    public void pushInternal(
+    public String pushInternal(
             @ShellOption(help = "tag for hostname") String tag,
             @ShellOption(help = "version (ex: 1.0.0.RELEASE, 1.0.0.SNAP)", defaultValue = "1.0.0.SNAP") String version,
-            @ShellOption(help = "internal domain (ex: apps.internal", defaultValue = "apps.internal") String internalDomain) {
-
-        // push api with internal route
-        pushApplication(tag + "-todos-api",
-                Paths.get(jarsFolder, "todos-api-" + version + ".jar").toFile().toPath())
-                .then(this.cf.routes()
-                        .map(MapRouteRequest.builder()
-                                .applicationName(tag + "-todos-api")
-                                .domain(internalDomain)
-                                .host(tag + "-todos-api")
-                                .build()))
-                .then(this.cf.routes()
-                        .unmap(UnmapRouteRequest.builder()
-                                .applicationName(tag + "-todos-api")
-                                .domain(this.cfDomain)
-                                .host(tag + "-todos-api")
-                                .build()))
-                .then(cf.applications()
-                        .start(StartApplicationRequest.builder()
-                                .name(tag + "-todos-api").build())).subscribe();
-
-        // push webui with internal route
-        pushApplication(tag + "-todos-webui",
-                Paths.get(jarsFolder, "todos-webui-" + version + ".jar").toFile().toPath())
-                .then(this.cf.routes()
-                        .map(MapRouteRequest.builder()
-                                .applicationName(tag + "-todos-webui")
-                                .domain(internalDomain)
-                                .host(tag + "-todos-webui")
-                                .build()))
-                .then(this.cf.routes()
-                        .unmap(UnmapRouteRequest.builder()
-                                .applicationName(tag + "-todos-webui")
-                                .domain(this.cfDomain)
-                                .host(tag + "-todos-webui")
-                                .build()))
-                .then(cf.applications()
-                        .start(StartApplicationRequest.builder()
-                                .name(tag + "-todos-webui").build())).subscribe();
-
-        // push edge and config UI and API endpoints in edge's ENV
-        pushApplication(tag + "-todos-edge",
-                Paths.get(jarsFolder, "todos-edge-" + version + ".jar").toFile().toPath())
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-edge")
-                                .variableName("TODOS_UI_ENDPOINT")
-                                .variableValue("http://" + tag + "-todos-webui.apps.internal:8080")
-                                .build()))
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-edge")
-                                .variableName("TODOS_API_ENDPOINT")
-                                .variableValue("http://" + tag + "-todos-api.apps.internal:8080")
-                                .build()))
-                .then(this.cf.applications()
-                        .start(StartApplicationRequest.builder()
-                                .name(tag + "-todos-edge").build())).subscribe();
+            @ShellOption(help = "internal domain (ex: apps.internal", defaultValue = "apps.internal") String internalDomain,
+            @ShellOption(help = "foundations to push to at once, when not the cf one (ex: east,west)", defaultValue = "") String foundations,
+            @ShellOption(help = "stream the apps' logs with their staging and start times until the push ends", defaultValue = "false") boolean follow) {
+
+        String stack = tag(tag);
+        return push("internal", stack, foundations, follow, variants -> variants.internal(stack, version, internalDomain));
     }
 
     @ShellMethod("push with spring-cloud")
-    public void pushScs(
+    public String pushScs(
             @ShellOption(help = "tag for hostname") String tag,
             @ShellOption(help = "version (ex: 1.0.0.RELEASE, 1.0.0.SNAP)", defaultValue = "1.0.0.SNAP") String version,
             @ShellOption(help = "config-service", defaultValue = "todos-config") String configServiceInstance,
-            @ShellOption(help = "registry-service", defaultValue = "todos-registry") String registryServiceInstance) {
-
-        if (tag.length() < 1) {
-            tag = UUID.randomUUID().toString().substring(0, 8);
-        }
+            @ShellOption(help = "registry-service", defaultValue = "todos-registry") String registryServiceInstance,
+            @ShellOption(help = "foundations to push to at once, when not the cf one (ex: east,west)", defaultValue = "") String foundations,
+            @ShellOption(help = "stream the apps' logs with their staging and start times until the push ends", defaultValue = "false") boolean follow) {
 
-        pushApplication(tag + "-todos-api",
-                Paths.get(jarsFolder, "todos-api-" + version + ".jar").toFile().toPath())
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-api")
-                                .variableName("TRUST_CERTS")
-                                .variableValue(cfApi)
-                                .build()))
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-api")
-                                .variableName("SPRING_APPLICATION_NAME")
-                                .variableValue(tag + "-todos-api")
-                                .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-api")
-                        .serviceInstanceName(configServiceInstance)
-                        .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-api")
-                        .serviceInstanceName(registryServiceInstance)
-                        .build()))
-                .then(cf.applications()
-                        .start(StartApplicationRequest.builder()
-                                .name(tag + "-todos-api").build())).subscribe();
-
-        pushApplication(tag + "-todos-webui",
-                Paths.get(jarsFolder, "todos-webui-" + version + ".jar").toFile().toPath())
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-webui")
-                                .variableName("TRUST_CERTS")
-                                .variableValue(cfApi)
-                                .build()))
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-webui")
-                                .variableName("SPRING_APPLICATION_NAME")
-                                .variableValue(tag + "-todos-webui")
-                                .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-webui")
-                        .serviceInstanceName(configServiceInstance)
-                        .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-webui")
-                        .serviceInstanceName(registryServiceInstance)
-                        .build()))
-                .then(cf.applications()
-                        .start(StartApplicationRequest.builder()
-                                .name(tag + "-todos-webui").build())).subscribe();
-
-        pushApplication(tag + "-todos-edge",
-                Paths.get(jarsFolder, "todos-edge-" + version + ".jar").toFile().toPath())
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-edge")
-                                .variableName("TRUST_CERTS")
-                                .variableValue(cfApi)
-                                .build()))
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-edge")
-                                .variableName("SPRING_APPLICATION_NAME")
-                                .variableValue(tag + "-todos-edge")
-                                .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-edge")
-                        .serviceInstanceName(configServiceInstance)
-                        .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-edge")
-                        .serviceInstanceName(registryServiceInstance)
-                        .build()))
-                .then(cf.applications()
-                        .start(StartApplicationRequest.builder()
-                                .name(tag + "-todos-edge").build())).subscribe();
+        String stack = tag(tag);
+        return push("scs", stack, foundations, follow, variants -> variants.scs(stack, version,
+                configServiceInstance, registryServiceInstance));
     }
 
     @ShellMethod("push with mysql")
-    public void pushMySQL(
+    public String pushMySQL(
             @ShellOption(help = "tag for hostname") String tag,
             @ShellOption(help = "version (ex: 1.0.0.RELEASE, 1.0.0.SNAP)", defaultValue = "1.0.0.SNAP") String version,
-            @ShellOption(help = "mysql service instance name (ex: todos-database)", defaultValue = "todos-database") String serviceInstance) {
-
-        // push mysql backend app
-        pushApplication(tag + "-todos-mysql",
-                Paths.get(jarsFolder, "todos-mysql-" + version + ".jar").toFile().toPath())
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-mysql")
-                        .serviceInstanceName(serviceInstance)
-                        .build()))
-                .then(cf.applications()
-                        .start(StartApplicationRequest.builder()
-                                .name(tag + "-todos-mysql").build())).subscribe();
-
-        // push webui
-        pushApplication(tag + "-todos-webui",
-                Paths.get(jarsFolder, "todos-webui-" + version + ".jar").toFile().toPath())
-                .then(cf.applications()
-                        .start(StartApplicationRequest.builder()
-                                .name(tag + "-todos-webui").build())).subscribe();
-
-        // push edge and manually config UI and API endpoints in edge's ENV
-        pushApplication(tag + "-todos-edge",
-                Paths.get(jarsFolder, "todos-edge-" + version + ".jar").toFile().toPath())
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-edge")
-                                .variableName("TODOS_UI_ENDPOINT")
-                                .variableValue("http://" + tag + "-todos-webui." + cfDomain)
-                                .build()))
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-edge")
-                                .variableName("TODOS_API_ENDPOINT")
-                                .variableValue("http://" + tag + "-todos-mysql." + cfDomain)
-                                .build()))
-                .then(cf.applications()
-                        .start(StartApplicationRequest.builder()
-                                .name(tag + "-todos-edge").build())).subscribe();
+            @ShellOption(help = "mysql service instance name (ex: todos-database)", defaultValue = "todos-database") String serviceInstance,
+            @ShellOption(help = "foundations to push to at once, when not the cf one (ex: east,west)", defaultValue = "") String foundations,
+            @ShellOption(help = "stream the apps' logs with their staging and start times until the push ends", defaultValue = "false") boolean follow) {
+
+        String stack = tag(tag);
+        return push("mysql", stack, foundations, follow, variants -> variants.mysql(stack, version, serviceInstance));
     }
 
-    @ShellMethod("push with spring-cloud and redis")
-    public void pushScsMySQL(
+    @ShellMethod("push with spring-cloud and mysql")
+    public String pushScsMySQL(
             @ShellOption(help = "tag for hostname") String tag,
             @ShellOption(help = "version (ex: 1.0.0.RELEASE, 1.0.0.SNAP)", defaultValue = "1.0.0.SNAP") String version,
             @ShellOption(help = "config-service", defaultValue = "todos-config") String configServiceInstance,
             @ShellOption(help = "registry-service", defaultValue = "todos-registry") String registryServiceInstance,
-            @ShellOption(help = "mysql service instance name (ex: todos-database)", defaultValue = "todos-database") String databaseServiceInstance) {
-
-        if (tag.length() < 1) {
-            tag = UUID.randomUUID().toString().substring(0, 8);
-        }
+            @ShellOption(help = "mysql service instance name (ex: todos-database)", defaultValue = "todos-database") String databaseServiceInstance,
+            @ShellOption(help = "foundations to push to at once, when not the cf one (ex: east,west)", defaultValue = "") String foundations,
+            @ShellOption(help = "stream the apps' logs with their staging and start times until the push ends", defaultValue = "false") boolean follow) {
 
-        // push mysql backend app
-        pushApplication(tag + "-todos-mysql",
-                Paths.get(jarsFolder, "todos-mysql-" + version + ".jar").toFile().toPath())
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-mysql")
-                                .variableName("TRUST_CERTS")
-                                .variableValue(cfApi)
-                                .build()))
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-mysql")
-                                .variableName("SPRING_APPLICATION_NAME")
-                                .variableValue(tag + "-todos-mysql")
-                                .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-mysql")
-                        .serviceInstanceName(databaseServiceInstance)
-                        .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-mysql")
-                        .serviceInstanceName(configServiceInstance)
-                        .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-mysql")
-                        .serviceInstanceName(registryServiceInstance)
-                        .build()))
-                .then(cf.applications()
-                        .start(StartApplicationRequest.builder()
-                                .name(tag + "-todos-mysql").build())).subscribe();
-
-        pushApplication(tag + "-todos-webui",
-                Paths.get(jarsFolder, "todos-webui-" + version + ".jar").toFile().toPath())
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-webui")
-                                .variableName("TRUST_CERTS")
-                                .variableValue(cfApi)
-                                .build()))
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-webui")
-                                .variableName("SPRING_APPLICATION_NAME")
-                                .variableValue(tag + "-todos-webui")
-                                .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-webui")
-                        .serviceInstanceName(configServiceInstance)
-                        .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-webui")
-                        .serviceInstanceName(registryServiceInstance)
-                        .build()))
-                .then(cf.applications()
-                        .start(StartApplicationRequest.builder()
-                                .name(tag + "-todos-webui").build())).subscribe();
-
-        pushApplication(tag + "-todos-edge",
-                Paths.get(jarsFolder, "todos-edge-" + version + ".jar").toFile().toPath())
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-edge")
-                                .variableName("TRUST_CERTS")
-                                .variableValue(cfApi)
-                                .build()))
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-edge")
-                                .variableName("SPRING_APPLICATION_NAME")
-                                .variableValue(tag + "-todos-edge")
-                                .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-edge")
-                        .serviceInstanceName(configServiceInstance)
-                        .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-edge")
-                        .serviceInstanceName(registryServiceInstance)
-                        .build()))
-                .then(cf.applications()
-                        .start(StartApplicationRequest.builder()
-                                .name(tag + "-todos-edge").build())).subscribe();
+        String stack = tag(tag);
+        return push("scs-mysql", stack, foundations, follow, variants -> variants.scsMySQL(stack, version,
+                configServiceInstance, registryServiceInstance, databaseServiceInstance));
     }
 
     @ShellMethod("push with redis")
-    public void pushRedis(
+    public String pushRedis(
             @ShellOption(help = "tag for hostname") String tag,
             @ShellOption(help = "version (ex: 1.0.0.RELEASE, 1.0.0.SNAP)", defaultValue = "1.0.0.SNAP") String version,
-            @ShellOption(help = "redis service instance name (ex: todos-redis)", defaultValue = "todos-redis") String serviceInstance) {
-
-        // push redis backend app
-        pushApplication(tag + "-todos-redis",
-                Paths.get(jarsFolder, "todos-redis-" + version + ".jar").toFile().toPath())
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-redis")
-                        .serviceInstanceName(serviceInstance)
-                        .build()))
-                .then(cf.applications()
-                        .start(StartApplicationRequest.builder()
-                                .name(tag + "-todos-redis").build())).subscribe();
-
-        // push webui
-        pushApplication(tag + "-todos-webui",
-                Paths.get(jarsFolder, "todos-webui-" + version + ".jar").toFile().toPath())
-                .then(cf.applications()
-                        .start(StartApplicationRequest.builder()
-                                .name(tag + "-todos-webui").build())).subscribe();
-
-        // push edge and manually config UI and API endpoints in edge's ENV
-        pushApplication(tag + "-todos-edge",
-                Paths.get(jarsFolder, "todos-edge-" + version + ".jar").toFile().toPath())
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-edge")
-                                .variableName("TODOS_UI_ENDPOINT")
-                                .variableValue("http://" + tag + "-todos-webui." + cfDomain)
-                                .build()))
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-edge")
-                                .variableName("TODOS_API_ENDPOINT")
-                                .variableValue("http://" + tag + "-todos-redis." + cfDomain)
-                                .build()))
-                .then(cf.applications()
-                        .start(StartApplicationRequest.builder()
-                                .name(tag + "-todos-edge").build())).subscribe();
+            @ShellOption(help = "redis service instance name (ex: todos-redis)", defaultValue = "todos-redis") String serviceInstance,
+            @ShellOption(help = "foundations to push to at once, when not the cf one (ex: east,west)", defaultValue = "") String foundations,
+            @ShellOption(help = "stream the apps' logs with their staging and start times until the push ends", defaultValue = "false") boolean follow) {
+
+        String stack = tag(tag);
+        return push("redis", stack, foundations, follow, variants -> variants.redis(stack, version, serviceInstance));
     }
 
     @ShellMethod("push with spring-cloud and redis")
-    public void pushScsRedis(
+    public String pushScsRedis(
             @ShellOption(help = "tag for hostname") String tag,
             @ShellOption(help = "version (ex: 1.0.0.RELEASE, 1.0.0.SNAP)", defaultValue = "1.0.0.SNAP") String version,
             @ShellOption(help = "config-service", defaultValue = "todos-config") String configServiceInstance,
             @ShellOption(help = "registry-service", defaultValue = "todos-registry") String registryServiceInstance,
-            @ShellOption(help = "redis service instance name (ex: todos-redis)", defaultValue = "todos-redis") String redisServiceInstance) {
-
-        if (tag.length() < 1) {
-            tag = UUID.randomUUID().toString().substring(0, 8);
-        }
+            @ShellOption(help = "redis service instance name (ex: todos-redis)", defaultValue = "todos-redis") String redisServiceInstance,
+            @ShellOption(help = "foundations to push to at once, when not the cf one (ex: east,west)", defaultValue = "") String foundations,
+            @ShellOption(help = "stream the apps' logs with their staging and start times until the push ends", defaultValue = "false") boolean follow) {
 
-        // push redis backend app
-        pushApplication(tag + "-todos-redis",
-                Paths.get(jarsFolder, "todos-redis-" + version + ".jar").toFile().toPath())
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-redis")
-                                .variableName("TRUST_CERTS")
-                                .variableValue(cfApi)
-                                .build()))
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-redis")
-                                .variableName("SPRING_APPLICATION_NAME")
-                                .variableValue(tag + "-todos-redis")
-                                .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-redis")
-                        .serviceInstanceName(redisServiceInstance)
-                        .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-redis")
-                        .serviceInstanceName(configServiceInstance)
-                        .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-redis")
-                        .serviceInstanceName(registryServiceInstance)
-                        .build()))
-                .then(cf.applications()
-                        .start(StartApplicationRequest.builder()
-                                .name(tag + "-todos-redis").build())).subscribe();
-
-        pushApplication(tag + "-todos-webui",
-                Paths.get(jarsFolder, "todos-webui-" + version + ".jar").toFile().toPath())
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-webui")
-                                .variableName("TRUST_CERTS")
-                                .variableValue(cfApi)
-                                .build()))
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-webui")
-                                .variableName("SPRING_APPLICATION_NAME")
-                                .variableValue(tag + "-todos-webui")
-                                .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-webui")
-                        .serviceInstanceName(configServiceInstance)
-                        .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-webui")
-                        .serviceInstanceName(registryServiceInstance)
-                        .build()))
-                .then(cf.applications()
-                        .start(StartApplicationRequest.builder()
-                                .name(tag + "-todos-webui").build())).subscribe();
-
-        pushApplication(tag + "-todos-edge",
-                Paths.get(jarsFolder, "todos-edge-" + version + ".jar").toFile().toPath())
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-edge")
-                                .variableName("TRUST_CERTS")
-                                .variableValue(cfApi)
-                                .build()))
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-edge")
-                                .variableName("SPRING_APPLICATION_NAME")
-                                .variableValue(tag + "-todos-edge")
-                                .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-edge")
-                        .serviceInstanceName(configServiceInstance)
-                        .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-edge")
-                        .serviceInstanceName(registryServiceInstance)
-                        .build()))
-                .then(cf.applications()
-                        .start(StartApplicationRequest.builder()
-                                .name(tag + "-todos-edge").build())).subscribe();
+        String stack = tag(tag);
+        return push("scs-redis", stack, foundations, follow, variants -> variants.scsRedis(stack, version,
+                configServiceInstance, registryServiceInstance, redisServiceInstance));
     }
 
     @ShellMethod("push with spring-cloud and look-aside caching")
-    public void pushLookaside(
+    public String pushLookaside(
             @ShellOption(help = "tag for hostname") String tag,
             @ShellOption(help = "version (ex: 1.0.0.RELEASE, 1.0.0.SNAP)", defaultValue = "1.0.0.SNAP") String version,
             @ShellOption(help = "config-service", defaultValue = "todos-config") String configServiceInstance,
             @ShellOption(help = "registry-service", defaultValue = "todos-registry") String registryServiceInstance,
             @ShellOption(help = "mysql service instance name (ex: todos-database)", defaultValue = "todos-database") String databaseServiceInstance,
             @ShellOption(help = "redis service instance name (ex: todos-redis)", defaultValue = "todos-redis") String redisServiceInstance,
-            @ShellOption(help = "messaging service instance name (ex: todos-messaging)", defaultValue = "todos-messaging") String messagingServiceInstance) {
+            @ShellOption(help = "messaging service instance name (ex: todos-messaging)", defaultValue = "todos-messaging") String messagingServiceInstance,
+            @ShellOption(help = "foundations to push to at once, when not the cf one (ex: east,west)", defaultValue = "") String foundations,
+            @ShellOption(help = "stream the apps' logs with their staging and start times until the push ends", defaultValue = "false") boolean follow) {
+
+        String stack = tag(tag);
+        return push("lookaside", stack, foundations, follow, variants -> variants.lookaside(stack, version,
+                configServiceInstance, registryServiceInstance,
+                databaseServiceInstance, redisServiceInstance, messagingServiceInstance));
+    }
 
-        if (tag.length() < 1) {
-            tag = UUID.randomUUID().toString().substring(0, 8);
+    @ShellMethod("push many tagged stacks of one variant concurrently")
+    public String pushFleet(
+            @ShellOption(help = "variant (app, internal, scs, mysql, scs-mysql, redis, scs-redis, lookaside)") String variant,
+            @ShellOption(help = "comma separated tags (ex: ws1,ws2,ws3)", defaultValue = "") String tags,
+            @ShellOption(help = "number of random tags, when no tags are given", defaultValue = "0") int count,
+            @ShellOption(help = "version (ex: 1.0.0.RELEASE, 1.0.0.SNAP)", defaultValue = "1.0.0.SNAP") String version,
+            @ShellOption(help = "stacks deployed at once", defaultValue = "4") int stacks,
+            @ShellOption(help = "cap on in-flight cloud controller calls", defaultValue = "16") int maxCalls) {
+
+        List<String> fleetTags = new ArrayList<>();
+        if (tags.isEmpty()) {
+            for (int i = 0; i < count; i++) {
+                fleetTags.add(tag(""));
+            }
+        } else {
+            for (String tag : tags.split(",")) {
+                if (!tag.trim().isEmpty()) {
+                    fleetTags.add(tag.trim());
+                }
+            }
+        }
+        if (fleetTags.isEmpty()) {
+            throw new IllegalArgumentException("no tags and no --count, no stacks to push");
+        }
+        List<Topology> topologies = new ArrayList<>();
+        for (String tag : fleetTags) {
+            topologies.add(this.topologies.variant(variant, tag, version));
+        }
+        Job job = jobs.submit("fleet " + variant + " x" + topologies.size(),
+                listener -> fleet.push(topologies, stacks, maxCalls, listener));
+        job.done().doOnTerminate(listings::invalidateApps).subscribe();
+        return Integer.toString(job.getId());
+    }
+
+    @ShellMethod("redeploy a tagged stack, uploading and restarting only the apps that changed")
+    public String redeploy(
+            @ShellOption(help = "variant (app, internal, scs, mysql, scs-mysql, redis, scs-redis, lookaside)") String variant,
+            @ShellOption(help = "tag the stack was pushed with") String tag,
+            @ShellOption(help = "version (ex: 1.0.0.RELEASE, 1.0.0.SNAP)", defaultValue = "1.0.0.SNAP") String version,
+            @ShellOption(help = "internal domain the stack was pushed with (ex: apps.internal)", defaultValue = "apps.internal") String internalDomain,
+            @ShellOption(help = "config-service the stack was pushed with", defaultValue = "todos-config") String configServiceInstance,
+            @ShellOption(help = "registry-service the stack was pushed with", defaultValue = "todos-registry") String registryServiceInstance,
+            @ShellOption(help = "mysql service instance the stack was pushed with (ex: todos-database)", defaultValue = "todos-database") String databaseServiceInstance,
+            @ShellOption(help = "redis service instance the stack was pushed with (ex: todos-redis)", defaultValue = "todos-redis") String redisServiceInstance,
+            @ShellOption(help = "messaging service instance the stack was pushed with (ex: todos-messaging)", defaultValue = "todos-messaging") String messagingServiceInstance,
+            @ShellOption(help = "push the changed apps next to the live ones and switch routes once they run", defaultValue = "false") boolean blueGreen,
+            @ShellOption(help = "foundations to redeploy on at once, when not the cf one (ex: east,west)", defaultValue = "") String foundations,
+            @ShellOption(help = "stream the logs of the apps that change until the redeploy ends", defaultValue = "false") boolean follow) {
+
+        return deploy("redeploy " + variant + " " + tag, foundations, follow,
+                variants -> variants.variant(variant, tag, version, internalDomain, configServiceInstance,
+                        registryServiceInstance, databaseServiceInstance, redisServiceInstance,
+                        messagingServiceInstance),
+                (executor, stack, listener) -> executor.redeploy(stack, blueGreen, listener));
+    }
+
+    @ShellMethod("list the network policies of a tagged stack, pruning those its variant doesn't need")
+    public String policies(
+            @ShellOption(help = "tag the stack was pushed with") String tag,
+            @ShellOption(help = "variant (app, internal, scs, mysql, scs-mysql, redis, scs-redis, lookaside)", defaultValue = "internal") String variant,
+            @ShellOption(help = "version (ex: 1.0.0.RELEASE, 1.0.0.SNAP)", defaultValue = "1.0.0.SNAP") String version,
+            @ShellOption(help = "delete the policies between the stack's apps that the variant doesn't need", defaultValue = "false") boolean prune) {
+        return print(executor.policies(topologies.variant(variant, tag, version), topologies.names(tag), prune),
+                Function.identity());
+    }
+
+    @ShellMethod("delete tagged stacks with their service bindings, network policies and the routes left unused")
+    public String teardown(
+            @ShellOption(help = "comma separated tags (ex: ws1,ws2)", defaultValue = "") String tags,
+            @ShellOption(help = "also every stack with apps created longer ago than this (ex: 7d, 12h, 30m)", defaultValue = "") String olderThan,
+            @ShellOption(help = "deletes in flight at once", defaultValue = "8") int parallelism) {
+        Set<String> names = new HashSet<>();
+        for (String tag : tags.split(",")) {
+            if (!tag.trim().isEmpty()) {
+                names.addAll(topologies.names(tag.trim()));
+            }
+        }
+        Instant createdBefore = olderThan.isEmpty() ? null : Instant.now().minus(age(olderThan));
+        if (names.isEmpty() && createdBefore == null) {
+            throw new IllegalArgumentException("no tags and no --older-than, nothing to tear down");
+        }
+        long start = System.nanoTime();
+        executor.teardown(names, topologies::isApp, createdBefore, parallelism)
+                .doOnNext(row -> {
+                    terminal.writer().println(row);
+                    terminal.writer().flush();
+                })
+                .doFinally(signal -> listings.invalidateApps())
+                .blockLast();
+        return String.format("torn down in %.1fs", (System.nanoTime() - start) / 1_000_000_000.0);
+    }
+
+    @ShellMethod("list push jobs")
+    public List<String> jobs() {
+        List<String> jobs = new ArrayList<>();
+        for (Job job : this.jobs.list()) {
+            jobs.add(summary(job));
+        }
+        return jobs;
+    }
+
+    @ShellMethod("show a push job with its steps")
+    public String jobStatus(@ShellOption(help = "job id") int id) {
+        return status(jobs.get(id));
+    }
+
+    @ShellMethod("wait for a push job to finish")
+    public String jobWait(
+            @ShellOption(help = "job id") int id,
+            @ShellOption(help = "seconds to wait", defaultValue = "900") int timeout) {
+        Job job = jobs.get(id);
+        // a job still running once the wait is up is shown as it is
+        job.done()
+                .timeout(Duration.ofSeconds(timeout))
+                .onErrorResume(TimeoutException.class, e -> Mono.empty())
+                .block();
+        return status(job);
+    }
+
+    @ShellMethod("cancel a running push job")
+    public String jobCancel(@ShellOption(help = "job id") int id) {
+        Job job = jobs.get(id);
+        job.cancel();
+        return summary(job);
+    }
+
+    @ShellMethod("show call and deploy step latencies by operation and app role")
+    public String metrics(
+            @ShellOption(help = "also export to a file, .json for json else prometheus text (ex: metrics.prom)", defaultValue = "") String export,
+            @ShellOption(help = "export to the default metrics file", defaultValue = "false") boolean save,
+            @ShellOption(help = "clear recorded latencies afterwards", defaultValue = "false") boolean reset) {
+        String table = metrics.table();
+        if (save || !export.isEmpty()) {
+            table += "\nexported to " + metrics.export(export);
+        }
+        if (reset) {
+            metrics.reset();
+        }
+        return table;
+    }
+
+    @ShellMethod("show or switch the target org and space")
+    public String target(
+            @ShellOption(help = "org to target, the current one when not given", defaultValue = "") String org,
+            @ShellOption(help = "space to target, the current one when not given", defaultValue = "") String space) {
+        DefaultCloudFoundryOperations target = targets.current();
+        if (!org.isEmpty() || !space.isEmpty()) {
+            target = targets.target(org.isEmpty() ? target.getOrganization() : org,
+                    space.isEmpty() ? target.getSpace() : space).block();
         }
+        return String.format("org: %s, space: %s", target.getOrganization(), target.getSpace());
+    }
 
-        // push scs app backend app
-        pushApplication(tag + "-todos-app",
-                Paths.get(jarsFolder, "todos-app-" + version + ".jar").toFile().toPath())
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-app")
-                                .variableName("TRUST_CERTS")
-                                .variableValue(cfApi)
-                                .build()))
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-app")
-                                .variableName("SPRING_APPLICATION_NAME")
-                                .variableValue(tag + "-todos-app")
-                                .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-app")
-                        .serviceInstanceName(configServiceInstance)
-                        .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-app")
-                        .serviceInstanceName(registryServiceInstance)
-                        .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-app")
-                        .serviceInstanceName(messagingServiceInstance)
-                        .build()))
-                .then(cf.applications()
-                        .start(StartApplicationRequest.builder()
-                                .name(tag + "-todos-app").build())).subscribe();
-
-        // push mysql backend for Sor
-        pushApplication(tag + "-todos-mysql",
-                Paths.get(jarsFolder, "todos-mysql-" + version + ".jar").toFile().toPath())
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-mysql")
-                                .variableName("TRUST_CERTS")
-                                .variableValue(cfApi)
-                                .build()))
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-mysql")
-                                .variableName("SPRING_APPLICATION_NAME")
-                                .variableValue(tag + "-todos-mysql")
-                                .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-mysql")
-                        .serviceInstanceName(databaseServiceInstance)
-                        .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-mysql")
-                        .serviceInstanceName(configServiceInstance)
-                        .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-mysql")
-                        .serviceInstanceName(registryServiceInstance)
-                        .build()))
-                .then(cf.applications()
-                        .start(StartApplicationRequest.builder()
-                                .name(tag + "-todos-mysql").build())).subscribe();
-
-        // push redis backend app for Cache
-        pushApplication(tag + "-todos-redis",
-                Paths.get(jarsFolder, "todos-redis-" + version + ".jar").toFile().toPath())
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-redis")
-                                .variableName("TRUST_CERTS")
-                                .variableValue(cfApi)
-                                .build()))
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-redis")
-                                .variableName("SPRING_APPLICATION_NAME")
-                                .variableValue(tag + "-todos-redis")
-                                .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-redis")
-                        .serviceInstanceName(redisServiceInstance)
-                        .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-redis")
-                        .serviceInstanceName(configServiceInstance)
-                        .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-redis")
-                        .serviceInstanceName(registryServiceInstance)
-                        .build()))
-                .then(cf.applications()
-                        .start(StartApplicationRequest.builder()
-                                .name(tag + "-todos-redis").build())).subscribe();
-
-        pushApplication(tag + "-todos-webui",
-                Paths.get(jarsFolder, "todos-webui-" + version + ".jar").toFile().toPath())
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-webui")
-                                .variableName("TRUST_CERTS")
-                                .variableValue(cfApi)
-                                .build()))
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-webui")
-                                .variableName("SPRING_APPLICATION_NAME")
-                                .variableValue(tag + "-todos-webui")
-                                .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-webui")
-                        .serviceInstanceName(configServiceInstance)
-                        .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-webui")
-                        .serviceInstanceName(registryServiceInstance)
-                        .build()))
-                .then(cf.applications()
-                        .start(StartApplicationRequest.builder()
-                                .name(tag + "-todos-webui").build())).subscribe();
-
-        pushApplication(tag + "-todos-edge",
-                Paths.get(jarsFolder, "todos-edge-" + version + ".jar").toFile().toPath())
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-edge")
-                                .variableName("TRUST_CERTS")
-                                .variableValue(cfApi)
-                                .build()))
-                .then(this.cf.applications()
-                        .setEnvironmentVariable(SetEnvironmentVariableApplicationRequest.builder()
-                                .name(tag + "-todos-edge")
-                                .variableName("SPRING_APPLICATION_NAME")
-                                .variableValue(tag + "-todos-edge")
-                                .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-edge")
-                        .serviceInstanceName(configServiceInstance)
-                        .build()))
-                .then(this.cf.services().bind(BindServiceInstanceRequest.builder()
-                        .applicationName(tag + "-todos-edge")
-                        .serviceInstanceName(registryServiceInstance)
-                        .build()))
-                .then(cf.applications()
-                        .start(StartApplicationRequest.builder()
-                                .name(tag + "-todos-edge").build())).subscribe();
+    @ShellMethod("list the foundations a push can go to")
+    public List<String> foundations() {
+        List<String> names = new ArrayList<>();
+        for (String name : foundations.names()) {
+            names.add(String.format("%-16s %s", name, foundations.get(name).getApi()));
+        }
+        return names;
     }
 
     @ShellMethod("list jars")
@@ -691,32 +355,144 @@ public class ShellCommands {
     }
 
     @ShellMethod("list orgs")
-    public List<String> orgs() {
-        return cf.organizations().list().map(OrganizationSummary::getName).collectList().block();
+    public String orgs(@ShellOption(help = "skip the cache", defaultValue = "false") boolean refresh) {
+        if (refresh) {
+            listings.clear();
+        }
+        return print(listings.orgs(), Function.identity());
     }
 
     @ShellMethod("list spaces")
-    public List<String> spaces() {
-        return cf.spaces().list().map(SpaceSummary::getName).collectList().block();
+    public String spaces(@ShellOption(help = "skip the cache", defaultValue = "false") boolean refresh) {
+        if (refresh) {
+            listings.clear();
+        }
+        return print(listings.spaces(), Function.identity());
     }
 
     @ShellMethod("list apps")
-    public List<String> apps() {
-        return cf.applications().list().map(ApplicationSummary::getName).collectList().block();
+    public String apps(
+            @ShellOption(help = "only the stack pushed with this tag", defaultValue = "") String tag,
+            @ShellOption(help = "only names starting with this prefix", defaultValue = "") String prefix,
+            @ShellOption(help = "only apps in this state (ex: STARTED, STOPPED)", defaultValue = "") String state,
+            @ShellOption(help = "space in the target org, instead of the target space", defaultValue = "") String space,
+            @ShellOption(help = "skip the cache", defaultValue = "false") boolean refresh) {
+        if (refresh) {
+            listings.clear();
+        }
+        List<String> names = tag.isEmpty() ? Collections.emptyList() : topologies.names(tag);
+        return print(listings.apps(new Listings.AppFilter(names, space, prefix, state)),
+                app -> String.format("%-48s %s", app.getName(), app.getState()));
     }
 
     @ShellMethod("list services")
-    public List<String> services() {
-        return cf.services().listInstances().map(ServiceInstanceSummary::getName).collectList().block();
-    }
-
-    private Mono<Void> pushApplication(String name, Path application) {
-        return cf.applications()
-                .push(PushApplicationRequest.builder()
-                        .noStart(true)
-                        .memory(this.cfMemory)
-                        .name(name)
-                        .path(application)
-                        .build());
+    public String services(@ShellOption(help = "skip the cache", defaultValue = "false") boolean refresh) {
+        if (refresh) {
+            listings.clear();
+        }
+        return print(listings.services(), Function.identity());
+    }
+
+    // writes each row as it arrives rather than after the last page
+    private <T> String print(Flux<T> rows, Function<T, String> row) {
+        long start = System.nanoTime();
+        AtomicInteger count = new AtomicInteger();
+        rows.doOnNext(next -> {
+            terminal.writer().println(row.apply(next));
+            terminal.writer().flush();
+            count.incrementAndGet();
+        }).blockLast();
+        return String.format("%d listed in %.1fs", count.get(), (System.nanoTime() - start) / 1_000_000_000.0);
+    }
+
+    private String push(String variant, String tag, String foundations, boolean follow,
+                        Function<Topologies, Topology> topology) {
+        return deploy("push " + variant + " " + tag, foundations, follow, topology, TopologyExecutor::execute);
+    }
+
+    // runs in the background as a tracked job, the job id is returned to the shell. with foundations the
+    // topology is built and deployed to each of them concurrently. follow waits for the job instead, writing
+    // the apps' logs as they come, and returns its status
+    private String deploy(String name, String foundations, boolean follow, Function<Topologies, Topology> topology,
+                          TopologyExecutor.Deployment deployment) {
+        // app names and roles are the same on every foundation
+        LogFollower follower = !follow ? null : new LogFollower(topology.apply(topologies),
+                foundation -> foundation.isEmpty() ? executor : this.foundations.get(foundation).getExecutor(),
+                followBuffer);
+        StepListener logs = follower != null ? follower : StepListener.NONE;
+        Job job;
+        if (foundations.isEmpty()) {
+            Topology stack = topology.apply(topologies);
+            job = jobs.submit(name, listener -> deployment.run(executor, stack, StepListener.both(listener, logs)));
+        } else {
+            List<Foundation> targets = this.foundations.get(Arrays.asList(foundations.split(",")));
+            job = jobs.submit(name + " to " + foundations, listener -> this.foundations.push(targets, topology,
+                    deployment, StepListener.both(listener, logs)));
+        }
+        job.done().doOnTerminate(listings::invalidateApps).subscribe();
+        if (follower == null) {
+            return Integer.toString(job.getId());
+        }
+        try {
+            follower.follow(job, terminal.writer());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "stopped following, job " + job.getId() + " runs on";
+        }
+        return status(job);
+    }
+
+    private static String summary(Job job) {
+        long done = job.getSteps().values().stream()
+                .filter(step -> step.getState() != Job.State.PENDING && step.getState() != Job.State.RUNNING)
+                .count();
+        return String.format("%-4d %-10s %-28s %4d/%-4d steps %8.1fs",
+                job.getId(), job.getState(), job.getName(), done, job.getSteps().size(),
+                job.elapsed().toMillis() / 1000.0);
+    }
+
+    private static String status(Job job) {
+        StringBuilder status = new StringBuilder(summary(job)).append('\n');
+        status.append("started ").append(job.getStartedAt());
+        if (job.getEndedAt() != null) {
+            status.append(", ended ").append(job.getEndedAt());
+        }
+        if (job.getError() != null) {
+            status.append('\n').append("error: ").append(job.getError().getMessage());
+        }
+        job.getSteps().forEach((id, step) -> {
+            status.append('\n').append(String.format("  %-10s %-56s", step.getState(), id));
+            if (step.getStartedAt() != null) {
+                status.append(String.format(" %s %8.1fs", step.getStartedAt(), step.elapsed().toMillis() / 1000.0));
+            }
+            if (step.getError() != null) {
+                status.append(" ").append(step.getError().getMessage());
+            }
+        });
+        return status.toString();
+    }
+
+    // 7d, 12h or 30m, else an iso duration (ex: PT90M)
+    private static Duration age(String age) {
+        Matcher units = Pattern.compile("(\\d+)([dhm])").matcher(age.trim());
+        if (!units.matches()) {
+            return Duration.parse(age.trim());
+        }
+        long amount = Long.parseLong(units.group(1));
+        switch (units.group(2)) {
+            case "d":
+                return Duration.ofDays(amount);
+            case "h":
+                return Duration.ofHours(amount);
+            default:
+                return Duration.ofMinutes(amount);
+        }
+    }
+
+    private static String tag(String tag) {
+        if (tag.length() < 1) {
+            return UUID.randomUUID().toString().substring(0, 8);
+        }
+        return tag;
     }
 }
@@ -0,0 +1,123 @@
+package io.todos.cf.cfclient;
+
+import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.util.context.Context;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+// DAG of deploy steps, each step is issued as soon as every step it depends on has completed
+public class StepGraph {
+
+    private final Map<String, Step> steps = new LinkedHashMap<>();
+
+    public String step(String id, Supplier<Mono<Void>> action, String... dependsOn) {
+        return step(id, action, Arrays.asList(dependsOn));
+    }
+
+    public String step(String id, Supplier<Mono<Void>> action, List<String> dependsOn) {
+        if (steps.containsKey(id)) {
+            throw new IllegalArgumentException("duplicate step " + id);
+        }
+        steps.put(id, new Step(id, action, new ArrayList<>(dependsOn)));
+        return id;
+    }
+
+    public Set<String> ids() {
+        return steps.keySet();
+    }
+
+    public Mono<Void> run() {
+        return run(StepListener.NONE);
+    }
+
+    // every step runs with the subscriber context of the run, e.g. a cap on its calls, see CallLimiter.capCalls
+    public Mono<Void> run(StepListener listener) {
+        return Mono.subscriberContext().flatMap(context -> {
+            verify();
+            steps.keySet().forEach(listener::planned);
+            Map<String, MonoProcessor<Void>> scheduled = new HashMap<>();
+            for (String id : steps.keySet()) {
+                schedule(id, scheduled, context, listener);
+            }
+            // a failed step skips its dependants but lets independent steps finish,
+            // cancelling the run cancels every step still in flight
+            return Mono.whenDelayError(scheduled.values())
+                    .onErrorMap(Exceptions::isMultiple, error -> Exceptions.unwrapMultiple(error).get(0))
+                    .doOnCancel(() -> scheduled.values().forEach(MonoProcessor::cancel));
+        });
+    }
+
+    // each step subscribes to its dependencies once and is shared by every dependant
+    private MonoProcessor<Void> schedule(String id, Map<String, MonoProcessor<Void>> scheduled,
+                                         Context context, StepListener listener) {
+        MonoProcessor<Void> mono = scheduled.get(id);
+        if (mono != null) {
+            return mono;
+        }
+        Step step = steps.get(id);
+        List<Mono<Void>> dependencies = new ArrayList<>();
+        for (String dependency : step.dependsOn) {
+            dependencies.add(schedule(dependency, scheduled, context, listener));
+        }
+        mono = Mono.when(dependencies)
+                .then(Mono.defer(step.action)
+                        .doOnSubscribe(subscription -> listener.started(id))
+                        .doOnSuccess(done -> listener.succeeded(id))
+                        .doOnError(error -> listener.failed(id, error))
+                        .doOnCancel(() -> listener.cancelled(id)))
+                .subscriberContext(context)
+                .toProcessor();
+        scheduled.put(id, mono);
+        return mono;
+    }
+
+    private void verify() {
+        for (Step step : steps.values()) {
+            for (String dependency : step.dependsOn) {
+                if (!steps.containsKey(dependency)) {
+                    throw new IllegalArgumentException("step " + step.id + " depends on unknown step " + dependency);
+                }
+            }
+        }
+        Set<String> done = new HashSet<>();
+        for (String id : steps.keySet()) {
+            visit(id, new HashSet<>(), done);
+        }
+    }
+
+    private void visit(String id, Set<String> path, Set<String> done) {
+        if (done.contains(id)) {
+            return;
+        }
+        if (!path.add(id)) {
+            throw new IllegalArgumentException("cycle in deploy steps at " + id);
+        }
+        for (String dependency : steps.get(id).dependsOn) {
+            visit(dependency, path, done);
+        }
+        path.remove(id);
+        done.add(id);
+    }
+
+    private static class Step {
+        private final String id;
+        private final Supplier<Mono<Void>> action;
+        private final List<String> dependsOn;
+
+        private Step(String id, Supplier<Mono<Void>> action, List<String> dependsOn) {
+            this.id = id;
+            this.action = action;
+            this.dependsOn = dependsOn;
+        }
+    }
+}
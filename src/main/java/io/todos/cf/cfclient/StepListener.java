@@ -0,0 +1,88 @@
+package io.todos.cf.cfclient;
+
+// observes the steps of a running step graph
+public interface StepListener {
+
+    StepListener NONE = new StepListener() {
+    };
+
+    default void planned(String step) {
+    }
+
+    default void started(String step) {
+    }
+
+    default void succeeded(String step) {
+    }
+
+    default void failed(String step, Throwable error) {
+    }
+
+    default void cancelled(String step) {
+    }
+
+    // reports every step as <prefix><step>, e.g. one foundation's steps within a job pushing to several
+    static StepListener prefixed(String prefix, StepListener listener) {
+        return new StepListener() {
+            @Override
+            public void planned(String step) {
+                listener.planned(prefix + step);
+            }
+
+            @Override
+            public void started(String step) {
+                listener.started(prefix + step);
+            }
+
+            @Override
+            public void succeeded(String step) {
+                listener.succeeded(prefix + step);
+            }
+
+            @Override
+            public void failed(String step, Throwable error) {
+                listener.failed(prefix + step, error);
+            }
+
+            @Override
+            public void cancelled(String step) {
+                listener.cancelled(prefix + step);
+            }
+        };
+    }
+
+    // reports every step to both, e.g. a job and the log follower of its push
+    static StepListener both(StepListener first, StepListener second) {
+        return new StepListener() {
+            @Override
+            public void planned(String step) {
+                first.planned(step);
+                second.planned(step);
+            }
+
+            @Override
+            public void started(String step) {
+                first.started(step);
+                second.started(step);
+            }
+
+            @Override
+            public void succeeded(String step) {
+                first.succeeded(step);
+                second.succeeded(step);
+            }
+
+            @Override
+            public void failed(String step, Throwable error) {
+                first.failed(step, error);
+                second.failed(step, error);
+            }
+
+            @Override
+            public void cancelled(String step) {
+                first.cancelled(step);
+                second.cancelled(step);
+            }
+        };
+    }
+}
@@ -0,0 +1,88 @@
+package io.todos.cf.cfclient;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import org.cloudfoundry.client.v2.applications.Resource;
+import org.cloudfoundry.client.v2.applications.UploadApplicationResponse;
+import org.cloudfoundry.reactor.ConnectionContext;
+import org.cloudfoundry.reactor.TokenProvider;
+import org.cloudfoundry.reactor.util.ErrorPayloadMapper;
+import org.cloudfoundry.reactor.util.JsonCodec;
+import org.cloudfoundry.reactor.util.UserAgent;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
+import reactor.ipc.netty.NettyOutbound;
+import reactor.ipc.netty.http.client.HttpClientRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+// puts a residual zip to /v2/apps/<id>/bits as one multipart body built while it is sent: the part headers
+// are a few small buffers, the entries go from the jar to the socket as file regions and the central
+// directory is sent from memory. nothing is buffered on disk and the heap holds only the directory
+public class StreamingUpload {
+
+    private static final String ZIP = "application/zip";
+
+    private final ConnectionContext connectionContext;
+    private final TokenProvider tokenProvider;
+    private final Resilience resilience;
+
+    public StreamingUpload(ConnectionContext connectionContext, TokenProvider tokenProvider, Resilience resilience) {
+        this.connectionContext = connectionContext;
+        this.tokenProvider = tokenProvider;
+        this.resilience = resilience;
+    }
+
+    // in the upload bulkhead with the client's uploads
+    public Mono<UploadApplicationResponse> upload(String applicationId, ResidualZip zip, List<Resource> resources) {
+        return resilience.call("applicationsV2.upload", () -> Mono.zip(connectionContext.getRootProvider().getRoot(connectionContext),
+                tokenProvider.getToken(connectionContext))
+                .flatMap(root -> connectionContext.getHttpClient()
+                        .put(root.getT1() + "/v2/apps/" + applicationId + "/bits?async=true",
+                                request -> send(UserAgent.addUserAgent(JsonCodec.addDecodeHeaders(request
+                                        .failOnClientError(false)
+                                        .failOnServerError(false)
+                                        .header(HttpHeaderNames.AUTHORIZATION, root.getT2()))), zip, resources))
+                        .transform(ErrorPayloadMapper.clientV2(connectionContext.getObjectMapper()))
+                        .transform(JsonCodec.decode(connectionContext.getObjectMapper(),
+                                UploadApplicationResponse.class))
+                        .single()));
+    }
+
+    private NettyOutbound send(HttpClientRequest request, ResidualZip zip, List<Resource> resources) {
+        String boundary = UUID.randomUUID().toString();
+        byte[] json = json(resources);
+        byte[] head = ("\r\n--" + boundary + "\r\n"
+                + "content-disposition: form-data; name=\"resources\"\r\n"
+                + "content-length: " + json.length + "\r\n"
+                + "content-type: application/json\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] application = ("\r\n--" + boundary + "\r\n"
+                + "content-disposition: form-data; name=\"application\"; filename=\"application.zip\"\r\n"
+                + "content-length: " + zip.length() + "\r\n"
+                + "content-type: " + ZIP + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] close = ("\r\n--" + boundary + "--").getBytes(StandardCharsets.US_ASCII);
+
+        NettyOutbound outbound = request
+                .chunkedTransfer(false)
+                .header(HttpHeaderNames.CONTENT_TYPE, "multipart/form-data; boundary=" + boundary)
+                .header(HttpHeaderNames.CONTENT_LENGTH, Long.toString(head.length + json.length
+                        + application.length + zip.length() + close.length))
+                .sendObject(Unpooled.wrappedBuffer(head, json, application));
+        for (long[] range : zip.getRanges()) {
+            outbound = outbound.sendFile(zip.getJar(), range[0], range[1]);
+        }
+        return outbound.sendObject(Unpooled.wrappedBuffer(Unpooled.wrappedBuffer(zip.getTrailer()),
+                Unpooled.wrappedBuffer(close)));
+    }
+
+    private byte[] json(List<Resource> resources) {
+        try {
+            return connectionContext.getObjectMapper().writeValueAsBytes(resources);
+        } catch (JsonProcessingException e) {
+            throw Exceptions.propagate(e);
+        }
+    }
+}
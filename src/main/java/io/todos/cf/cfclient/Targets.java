@@ -0,0 +1,67 @@
+package io.todos.cf.cfclient;
+
+import org.cloudfoundry.client.CloudFoundryClient;
+import org.cloudfoundry.networking.NetworkingClient;
+import org.cloudfoundry.operations.DefaultCloudFoundryOperations;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// the org and space commands run against, cf.organization and cf.space to start with.
+// operations are built once per org and space and kept, each looks its guids up on first use and
+// caches them, so switching back to a target makes no calls
+@Component
+@Lazy
+public class Targets {
+
+    private CloudFoundryClient client;
+    private NetworkingClient networkingClient;
+
+    private final Map<String, DefaultCloudFoundryOperations> operations = new ConcurrentHashMap<>();
+    private volatile DefaultCloudFoundryOperations current;
+
+    public Targets(@Autowired CloudFoundryClient client,
+                   @Autowired NetworkingClient networkingClient,
+                   @Value("${cf.organization}") String organization,
+                   @Value("${cf.space}") String space) {
+        this.client = client;
+        this.networkingClient = networkingClient;
+        this.current = operations(organization, space);
+    }
+
+    public DefaultCloudFoundryOperations current() {
+        return current;
+    }
+
+    // the guids are looked up before switching, so a missing org or space leaves the target as it was
+    public Mono<DefaultCloudFoundryOperations> target(String organization, String space) {
+        DefaultCloudFoundryOperations target = operations(organization, space);
+        return target.getSpaceId()
+                // the failed lookup is cached by the operations, drop them so the next try looks again
+                .doOnError(e -> operations.remove(key(organization, space), target))
+                .doOnNext(spaceId -> current = target)
+                .thenReturn(target);
+    }
+
+    static String key(String organization, String space) {
+        return organization + "/" + space;
+    }
+
+    static String key(DefaultCloudFoundryOperations operations) {
+        return key(operations.getOrganization(), operations.getSpace());
+    }
+
+    private DefaultCloudFoundryOperations operations(String organization, String space) {
+        return operations.computeIfAbsent(key(organization, space), key -> DefaultCloudFoundryOperations.builder()
+                .cloudFoundryClient(client)
+                .networkingClient(networkingClient)
+                .organization(organization)
+                .space(space)
+                .build());
+    }
+}
@@ -0,0 +1,201 @@
+package io.todos.cf.cfclient;
+
+import org.cloudfoundry.client.CloudFoundryClient;
+import org.cloudfoundry.client.v2.applications.ApplicationResource;
+import org.cloudfoundry.client.v2.applications.DeleteApplicationRequest;
+import org.cloudfoundry.client.v2.applications.ListApplicationRoutesRequest;
+import org.cloudfoundry.client.v2.applications.ListApplicationServiceBindingsRequest;
+import org.cloudfoundry.client.v2.routes.DeleteRouteRequest;
+import org.cloudfoundry.client.v2.routes.ListRouteApplicationsRequest;
+import org.cloudfoundry.client.v2.routes.RouteResource;
+import org.cloudfoundry.client.v2.servicebindings.DeleteServiceBindingRequest;
+import org.cloudfoundry.client.v2.servicebindings.ServiceBindingResource;
+import org.cloudfoundry.client.v2.spaces.ListSpaceApplicationsRequest;
+import org.cloudfoundry.client.v2.spaces.ListSpaceRoutesRequest;
+import org.cloudfoundry.util.ResourceUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+// deletes what pushes left in one space: the picked apps, their service bindings and network policies, and
+// the routes no app uses once they are gone. an app is unbound before it is deleted, so a broker that fails
+// an unbind leaves the app for the next teardown rather than a binding the platform forgot. the routes are
+// those the apps had plus those named like them, e.g. a public route an internal push unmapped. service
+// instances are shared between stacks and stay. every call after the listings waits for one of
+// parallelism permits, one resource failing is reported and doesn't stop the others
+final class Teardown {
+
+    private static final int RESULTS_PER_PAGE = 100;
+
+    private final CloudFoundryClient client;
+    private final NetworkPolicies policies;
+    private final Mono<String> spaceId;
+    private final CallLimiter limiter;
+
+    private final AtomicInteger apps = new AtomicInteger();
+    private final AtomicInteger bindings = new AtomicInteger();
+    private final AtomicInteger routes = new AtomicInteger();
+    private final AtomicInteger policiesDeleted = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    Teardown(CloudFoundryClient client, NetworkPolicies policies, Mono<String> spaceId, int parallelism) {
+        this.client = client;
+        this.policies = policies;
+        this.spaceId = spaceId;
+        this.limiter = new CallLimiter(parallelism);
+    }
+
+    // the named apps and, with createdBefore, every app of a stack created before it. a row for every
+    // resource as it is deleted or fails, then the counts. blue/green leftovers go with their app
+    Flux<String> run(Set<String> names, Predicate<String> stack, Instant createdBefore) {
+        Predicate<ApplicationResource> picked = app -> {
+            String name = ResourceUtils.getEntity(app).getName().replaceAll(TopologyExecutor.NEXT + "$", "");
+            return names.contains(name) || createdBefore != null && stack.test(name)
+                    && Instant.parse(app.getMetadata().getCreatedAt()).isBefore(createdBefore);
+        };
+        return spaceId.flatMapMany(id -> Pages.concurrently(page -> client.spaces()
+                .listApplications(ListSpaceApplicationsRequest.builder()
+                        .spaceId(id)
+                        .page(page)
+                        .resultsPerPage(RESULTS_PER_PAGE)
+                        .build()), limiter.getPermits())
+                .filter(picked)
+                .collectList()
+                .flatMapMany(doomed -> {
+                    if (doomed.isEmpty()) {
+                        return Flux.empty();
+                    }
+                    Map<String, String> routeHosts = new ConcurrentHashMap<>();
+                    Set<String> hosts = doomed.stream()
+                            .map(app -> ResourceUtils.getEntity(app).getName())
+                            .collect(Collectors.toSet());
+                    return Flux.concat(
+                            deletePolicies(doomed.stream().map(ResourceUtils::getId).collect(Collectors.toList())),
+                            Flux.fromIterable(doomed).flatMap(app -> delete(app, routeHosts)),
+                            Flux.defer(() -> deleteOrphans(id, routeHosts, hosts)));
+                }))
+                .concatWith(Mono.fromCallable(this::summary));
+    }
+
+    private String summary() {
+        return String.format("%d apps, %d bindings, %d routes and %d policies deleted, %d failed",
+                apps.get(), bindings.get(), routes.get(), policiesDeleted.get(), failures.get());
+    }
+
+    // policies from or to an app go with it, in one call for all of them
+    private Flux<String> deletePolicies(List<String> applicationIds) {
+        return policies.list(applicationIds)
+                .distinct()
+                .collectList()
+                .filter(existing -> !existing.isEmpty())
+                .flatMap(existing -> limited(() -> policies.delete(existing))
+                        .then(Mono.fromCallable(() -> {
+                            policiesDeleted.addAndGet(existing.size());
+                            return "deleted " + existing.size() + " policies";
+                        })))
+                .onErrorResume(e -> failed("policies", e))
+                .flux();
+    }
+
+    // route hosts by id are collected for deleteOrphans
+    private Flux<String> delete(ApplicationResource app, Map<String, String> routeHosts) {
+        String id = ResourceUtils.getId(app);
+        String name = ResourceUtils.getEntity(app).getName();
+        AtomicInteger unbindFailures = new AtomicInteger();
+        Flux<String> unbound = Pages.concurrently(page -> limited(() -> client.applicationsV2()
+                .listServiceBindings(ListApplicationServiceBindingsRequest.builder()
+                        .applicationId(id)
+                        .page(page)
+                        .build())), 1)
+                .flatMap(binding -> unbind(name, binding)
+                        .onErrorResume(e -> {
+                            unbindFailures.incrementAndGet();
+                            return failed("unbind " + name, e);
+                        }));
+        Mono<Void> mapped = Pages.concurrently(page -> limited(() -> client.applicationsV2()
+                .listRoutes(ListApplicationRoutesRequest.builder()
+                        .applicationId(id)
+                        .page(page)
+                        .build())), 1)
+                .doOnNext(route -> routeHosts.put(ResourceUtils.getId(route), host(route)))
+                .then();
+        Mono<String> deleted = Mono.defer(() -> {
+            if (unbindFailures.get() > 0) {
+                return Mono.just("kept app " + name + ", it is still bound");
+            }
+            return limited(() -> client.applicationsV2()
+                    .delete(DeleteApplicationRequest.builder()
+                            .applicationId(id)
+                            .build()))
+                    .then(Mono.fromCallable(() -> {
+                        apps.incrementAndGet();
+                        return "deleted app " + name;
+                    }));
+        });
+        return Flux.concat(unbound, mapped.thenMany(deleted))
+                .onErrorResume(e -> failed("app " + name, e));
+    }
+
+    private Mono<String> unbind(String name, ServiceBindingResource binding) {
+        return limited(() -> client.serviceBindingsV2()
+                .delete(DeleteServiceBindingRequest.builder()
+                        .serviceBindingId(ResourceUtils.getId(binding))
+                        .build()))
+                .then(Mono.fromCallable(() -> {
+                    bindings.incrementAndGet();
+                    return "unbound " + name + " from service instance "
+                            + ResourceUtils.getEntity(binding).getServiceInstanceId();
+                }));
+    }
+
+    // a route still mapped to an app, e.g. one a live stack shares, stays
+    private Flux<String> deleteOrphans(String spaceId, Map<String, String> routeHosts, Set<String> hosts) {
+        return Pages.concurrently(page -> client.spaces()
+                .listRoutes(ListSpaceRoutesRequest.builder()
+                        .spaceId(spaceId)
+                        .hosts(hosts)
+                        .page(page)
+                        .resultsPerPage(RESULTS_PER_PAGE)
+                        .build()), limiter.getPermits())
+                .doOnNext(route -> routeHosts.putIfAbsent(ResourceUtils.getId(route), host(route)))
+                .thenMany(Flux.defer(() -> Flux.fromIterable(routeHosts.entrySet())))
+                .flatMap(route -> limited(() -> client.routes()
+                        .listApplications(ListRouteApplicationsRequest.builder()
+                                .routeId(route.getKey())
+                                .page(1)
+                                .resultsPerPage(1)
+                                .build()))
+                        .filter(mapped -> mapped.getTotalResults() == 0)
+                        .flatMap(orphan -> limited(() -> client.routes()
+                                .delete(DeleteRouteRequest.builder()
+                                        .routeId(route.getKey())
+                                        .build()))
+                                .then(Mono.fromCallable(() -> {
+                                    routes.incrementAndGet();
+                                    return "deleted route " + route.getValue();
+                                })))
+                        .onErrorResume(e -> failed("route " + route.getValue(), e)));
+    }
+
+    private <T> Mono<T> limited(Supplier<? extends Mono<T>> call) {
+        return limiter.limit(call);
+    }
+
+    private Mono<String> failed(String what, Throwable error) {
+        failures.incrementAndGet();
+        return Mono.just("failed " + what + ": " + error.getMessage());
+    }
+
+    private static String host(RouteResource route) {
+        return ResourceUtils.getEntity(route).getHost();
+    }
+}
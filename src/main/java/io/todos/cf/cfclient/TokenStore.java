@@ -0,0 +1,183 @@
+package io.todos.cf.cfclient;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.cloudfoundry.reactor.ConnectionContext;
+import org.cloudfoundry.reactor.TokenProvider;
+import org.cloudfoundry.reactor.tokenprovider.AbstractUaaTokenProvider;
+import org.cloudfoundry.reactor.tokenprovider.PasswordGrantTokenProvider;
+import org.cloudfoundry.reactor.tokenprovider.RefreshTokenGrantTokenProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicReference;
+
+// keeps the uaa access and refresh tokens in an owner-only file so a new shell reuses them instead of
+// doing a password grant. the access token is refreshed in the background shortly before it expires,
+// falling back to the password grant when the refresh token is rejected
+public class TokenStore implements TokenProvider {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TokenStore.class);
+
+    // refresh this long before the access token expires
+    private static final Duration SKEW = Duration.ofSeconds(60);
+    // assumed lifetime of an access token that is not a jwt
+    private static final Duration UNKNOWN_EXPIRY = Duration.ofMinutes(5);
+    private final JsonFile file;
+    private final String key;
+    private final String username;
+    private final String password;
+
+    private Token token;
+    private Mono<String> acquiring;
+    private Disposable refresh;
+
+    public TokenStore(Path file, String api, String username, String password) {
+        this.file = new JsonFile(file, "tokens", true);
+        this.key = username + "@" + api;
+        this.username = username;
+        this.password = password;
+    }
+
+    @Override
+    public Mono<String> getToken(ConnectionContext connectionContext) {
+        return Mono.defer(() -> {
+            Token token = current();
+            if (token != null && token.isValid()) {
+                schedule(connectionContext, token);
+                return Mono.just(token.access);
+            }
+            return acquire(connectionContext);
+        });
+    }
+
+    // the cloud controller rejected the access token, the next call refreshes it
+    @Override
+    public synchronized void invalidate(ConnectionContext connectionContext) {
+        if (token != null) {
+            token = new Token(null, token.refresh, Instant.EPOCH);
+        }
+    }
+
+    private synchronized Token current() {
+        if (token == null) {
+            token = load();
+        }
+        return token;
+    }
+
+    // concurrent callers share one grant
+    private synchronized Mono<String> acquire(ConnectionContext connectionContext) {
+        if (acquiring == null) {
+            String refreshToken = token == null ? null : token.refresh;
+            Mono<Token> grant = refreshToken == null ? Mono.empty() : grant(connectionContext,
+                    RefreshTokenGrantTokenProvider.builder().token(refreshToken).build(), refreshToken)
+                    .doOnSubscribe(s -> LOGGER.debug("refreshing access token for {}", key))
+                    .onErrorResume(e -> {
+                        LOGGER.debug("refresh token rejected for {}: {}", key, e.getMessage());
+                        return Mono.empty();
+                    });
+            acquiring = grant
+                    .switchIfEmpty(Mono.defer(() -> grant(connectionContext, PasswordGrantTokenProvider.builder()
+                            .username(username)
+                            .password(password)
+                            .build(), null)))
+                    .doOnNext(token -> acquired(connectionContext, token))
+                    .doFinally(signal -> acquired())
+                    .map(token -> token.access)
+                    .cache();
+        }
+        return acquiring;
+    }
+
+    private synchronized void acquired(ConnectionContext connectionContext, Token token) {
+        this.token = token;
+        save(token);
+        schedule(connectionContext, token);
+    }
+
+    private synchronized void acquired() {
+        acquiring = null;
+    }
+
+    // the provider hands out its refresh token on a side stream before the access token
+    private static Mono<Token> grant(ConnectionContext connectionContext, AbstractUaaTokenProvider provider,
+                                     String refreshToken) {
+        AtomicReference<String> refresh = new AtomicReference<>(refreshToken);
+        return Mono.using(() -> provider.getRefreshTokens(connectionContext).subscribe(refresh::set),
+                disposable -> provider.getToken(connectionContext),
+                Disposable::dispose)
+                .map(access -> new Token(access, refresh.get(), expiry(access)));
+    }
+
+    // one background refresh ahead of expiry, commands keep using the current token meanwhile
+    private synchronized void schedule(ConnectionContext connectionContext, Token token) {
+        if (refresh != null && !refresh.isDisposed()) {
+            return;
+        }
+        Duration delay = Duration.between(Instant.now(), token.expiresAt.minus(SKEW.multipliedBy(2)));
+        if (delay.isNegative()) {
+            delay = Duration.ZERO;
+        }
+        refresh = Mono.delay(delay)
+                .flatMap(tick -> acquire(connectionContext))
+                .subscribe(access -> {
+                }, e -> LOGGER.debug("background token refresh failed for {}: {}", key, e.getMessage()));
+    }
+
+    private Token load() {
+        JsonNode entry = file.get(key);
+        if (entry.isMissingNode()) {
+            return null;
+        }
+        return new Token(entry.path("access").asText(null), entry.path("refresh").asText(null),
+                Instant.ofEpochSecond(entry.path("expiresAt").asLong()));
+    }
+
+    // other identities in the file are kept
+    private void save(Token token) {
+        file.update(tokens -> tokens.putObject(key)
+                .put("access", token.access)
+                .put("refresh", token.refresh)
+                .put("expiresAt", token.expiresAt.getEpochSecond()));
+    }
+
+    // exp claim of the jwt, "bearer header.payload.signature"
+    private static Instant expiry(String access) {
+        try {
+            String[] parts = access.substring(access.indexOf(' ') + 1).split("\\.");
+            JsonNode exp = new ObjectMapper().readTree(new String(Base64.getUrlDecoder().decode(parts[1]),
+                    StandardCharsets.UTF_8)).path("exp");
+            if (exp.canConvertToLong()) {
+                return Instant.ofEpochSecond(exp.asLong());
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("access token is not a jwt: {}", e.getMessage());
+        }
+        return Instant.now().plus(UNKNOWN_EXPIRY);
+    }
+
+    private static class Token {
+        private final String access;
+        private final String refresh;
+        private final Instant expiresAt;
+
+        private Token(String access, String refresh, Instant expiresAt) {
+            this.access = access;
+            this.refresh = refresh;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isValid() {
+            return access != null && Instant.now().plus(SKEW).isBefore(expiresAt);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package io.todos.cf.cfclient;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// the todos stack variants, one topology definition per push command
+@Component
+public class Topologies {
+    // every role a variant may push
+    private static final List<String> ROLES = Arrays.asList("api", "webui", "edge", "mysql", "redis", "app");
+    // local folder with sample jars
+    @Value("${jars.folder}")
+    String jarsFolder;
+    // cf api
+    @Value("${cf.api}")
+    String cfApi;
+    // cf domain, default for public networking
+    @Value("${cf.domain}")
+    String cfDomain;
+
+    // the same variants for another foundation's api and apps domain
+    public Topologies on(String api, String domain) {
+        Topologies topologies = new Topologies();
+        topologies.jarsFolder = jarsFolder;
+        topologies.cfApi = api;
+        topologies.cfDomain = domain;
+        return topologies;
+    }
+
+    // a variant by name, bound to the default service instances
+    public Topology variant(String variant, String tag, String version) {
+        return variant(variant, tag, version, "apps.internal", "todos-config", "todos-registry", "todos-database",
+                "todos-redis", "todos-messaging");
+    }
+
+    // a variant by name, bound to the given service instances, those it doesn't bind are ignored
+    public Topology variant(String variant, String tag, String version, String internalDomain,
+                            String configServiceInstance, String registryServiceInstance,
+                            String databaseServiceInstance, String redisServiceInstance,
+                            String messagingServiceInstance) {
+        switch (variant) {
+            case "app":
+                return app(tag, version);
+            case "internal":
+                return internal(tag, version, internalDomain);
+            case "scs":
+                return scs(tag, version, configServiceInstance, registryServiceInstance);
+            case "mysql":
+                return mysql(tag, version, databaseServiceInstance);
+            case "scs-mysql":
+                return scsMySQL(tag, version, configServiceInstance, registryServiceInstance,
+                        databaseServiceInstance);
+            case "redis":
+                return redis(tag, version, redisServiceInstance);
+            case "scs-redis":
+                return scsRedis(tag, version, configServiceInstance, registryServiceInstance,
+                        redisServiceInstance);
+            case "lookaside":
+                return lookaside(tag, version, configServiceInstance, registryServiceInstance,
+                        databaseServiceInstance, redisServiceInstance, messagingServiceInstance);
+            default:
+                throw new IllegalArgumentException("unknown variant " + variant
+                        + ", expected one of app, internal, scs, mysql, scs-mysql, redis, scs-redis, lookaside");
+        }
+    }
+
+    public Topology app(String tag, String version) {
+        return Topology.builder(tag)
+                .app(app(tag, "api", version))
+                .app(app(tag, "webui", version))
+                .app(edge(tag, version, publicEndpoint(tag, "webui"), publicEndpoint(tag, "api")))
+                .build();
+    }
+
+    public Topology internal(String tag, String version, String internalDomain) {
+        return Topology.builder(tag)
+                .app(app(tag, "api", version)
+                        .route(host(tag, "api"), internalDomain)
+                        .unmapRoute(host(tag, "api"), cfDomain))
+                .app(app(tag, "webui", version)
+                        .route(host(tag, "webui"), internalDomain)
+                        .unmapRoute(host(tag, "webui"), cfDomain))
+                .app(edge(tag, version,
+                        "http://" + host(tag, "webui") + "." + internalDomain + ":8080",
+                        "http://" + host(tag, "api") + "." + internalDomain + ":8080"))
+                .build();
+    }
+
+    public Topology scs(String tag, String version, String configServiceInstance, String registryServiceInstance) {
+        return Topology.builder(tag)
+                .app(scsApp(tag, "api", version)
+                        .bind(configServiceInstance, registryServiceInstance))
+                .app(scsApp(tag, "webui", version)
+                        .bind(configServiceInstance, registryServiceInstance))
+                .app(scsApp(tag, "edge", version)
+                        .bind(configServiceInstance, registryServiceInstance))
+                .build();
+    }
+
+    public Topology mysql(String tag, String version, String serviceInstance) {
+        return Topology.builder(tag)
+                .app(app(tag, "mysql", version)
+                        .bind(serviceInstance))
+                .app(app(tag, "webui", version))
+                .app(edge(tag, version, publicEndpoint(tag, "webui"), publicEndpoint(tag, "mysql")))
+                .build();
+    }
+
+    public Topology scsMySQL(String tag, String version, String configServiceInstance,
+                             String registryServiceInstance, String databaseServiceInstance) {
+        return Topology.builder(tag)
+                .app(scsApp(tag, "mysql", version)
+                        .bind(databaseServiceInstance, configServiceInstance, registryServiceInstance))
+                .app(scsApp(tag, "webui", version)
+                        .bind(configServiceInstance, registryServiceInstance))
+                .app(scsApp(tag, "edge", version)
+                        .bind(configServiceInstance, registryServiceInstance))
+                .build();
+    }
+
+    public Topology redis(String tag, String version, String serviceInstance) {
+        return Topology.builder(tag)
+                .app(app(tag, "redis", version)
+                        .bind(serviceInstance))
+                .app(app(tag, "webui", version))
+                .app(edge(tag, version, publicEndpoint(tag, "webui"), publicEndpoint(tag, "redis")))
+                .build();
+    }
+
+    public Topology scsRedis(String tag, String version, String configServiceInstance,
+                             String registryServiceInstance, String redisServiceInstance) {
+        return Topology.builder(tag)
+                .app(scsApp(tag, "redis", version)
+                        .bind(redisServiceInstance, configServiceInstance, registryServiceInstance))
+                .app(scsApp(tag, "webui", version)
+                        .bind(configServiceInstance, registryServiceInstance))
+                .app(scsApp(tag, "edge", version)
+                        .bind(configServiceInstance, registryServiceInstance))
+                .build();
+    }
+
+    public Topology lookaside(String tag, String version, String configServiceInstance,
+                              String registryServiceInstance, String databaseServiceInstance,
+                              String redisServiceInstance, String messagingServiceInstance) {
+        return Topology.builder(tag)
+                // scs app backend
+                .app(scsApp(tag, "app", version)
+                        .bind(configServiceInstance, registryServiceInstance, messagingServiceInstance))
+                // mysql backend for Sor
+                .app(scsApp(tag, "mysql", version)
+                        .bind(databaseServiceInstance, configServiceInstance, registryServiceInstance))
+                // redis backend for Cache
+                .app(scsApp(tag, "redis", version)
+                        .bind(redisServiceInstance, configServiceInstance, registryServiceInstance))
+                .app(scsApp(tag, "webui", version)
+                        .bind(configServiceInstance, registryServiceInstance))
+                .app(scsApp(tag, "edge", version)
+                        .bind(configServiceInstance, registryServiceInstance))
+                .build();
+    }
+
+    // every app starts out with its default public route
+    private Topology.App app(String tag, String role, String version) {
+        return new Topology.App(host(tag, role), role,
+                Paths.get(jarsFolder, "todos-" + role + "-" + version + ".jar"))
+                .route(host(tag, role), cfDomain);
+    }
+
+    // spring-cloud apps trust the platform certs and register under their own name
+    private Topology.App scsApp(String tag, String role, String version) {
+        return app(tag, role, version)
+                .env("TRUST_CERTS", cfApi)
+                .env("SPRING_APPLICATION_NAME", host(tag, role));
+    }
+
+    // app names a tag's stack may have, whatever the variant
+    public List<String> names(String tag) {
+        List<String> names = new ArrayList<>();
+        for (String role : ROLES) {
+            names.add(host(tag, role));
+        }
+        return names;
+    }
+
+    // whether a push of some tag gives an app this name
+    public boolean isApp(String name) {
+        return ROLES.stream().anyMatch(role -> name.endsWith(host("", role)) && name.length() > host("", role).length());
+    }
+
+    // edge is manually configured with the UI and API endpoints in its ENV
+    private Topology.App edge(String tag, String version, String uiEndpoint, String apiEndpoint) {
+        return app(tag, "edge", version)
+                .env("TODOS_UI_ENDPOINT", uiEndpoint)
+                .env("TODOS_API_ENDPOINT", apiEndpoint);
+    }
+
+    private String publicEndpoint(String tag, String role) {
+        return "http://" + host(tag, role) + "." + cfDomain;
+    }
+
+    private static String host(String tag, String role) {
+        return tag + "-todos-" + role;
+    }
+}
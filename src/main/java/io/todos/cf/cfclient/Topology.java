@@ -0,0 +1,182 @@
+package io.todos.cf.cfclient;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+// declarative description of a todos stack: apps, env, bindings, routes and start-order edges
+public class Topology {
+
+    private final String tag;
+    private final List<App> apps;
+
+    private Topology(String tag, List<App> apps) {
+        this.tag = tag;
+        this.apps = Collections.unmodifiableList(apps);
+    }
+
+    public static Builder builder(String tag) {
+        return new Builder(tag);
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public List<App> getApps() {
+        return apps;
+    }
+
+    // the named apps only, start-order edges to the others are dropped when planned
+    public Topology only(Collection<String> names) {
+        List<App> apps = new ArrayList<>();
+        for (App app : this.apps) {
+            if (names.contains(app.getName())) {
+                apps.add(app);
+            }
+        }
+        return new Topology(tag, apps);
+    }
+
+    public static class Builder {
+        private final String tag;
+        private final List<App> apps = new ArrayList<>();
+
+        private Builder(String tag) {
+            this.tag = tag;
+        }
+
+        public Builder app(App app) {
+            this.apps.add(app);
+            return this;
+        }
+
+        public Topology build() {
+            return new Topology(tag, apps);
+        }
+    }
+
+    public static class App {
+        private final String name;
+        private final String role;
+        private final Path jar;
+        private final Map<String, String> env = new LinkedHashMap<>();
+        private final Set<String> services = new LinkedHashSet<>();
+        private final List<Route> routes = new ArrayList<>();
+        private final List<Route> unmappedRoutes = new ArrayList<>();
+        private final Set<String> startAfter = new LinkedHashSet<>();
+
+        public App(String name, String role, Path jar) {
+            this.name = name;
+            this.role = role;
+            this.jar = jar;
+        }
+
+        public App env(String name, String value) {
+            this.env.put(name, value);
+            return this;
+        }
+
+        public App bind(String... serviceInstances) {
+            Collections.addAll(this.services, serviceInstances);
+            return this;
+        }
+
+        public App route(String host, String domain) {
+            this.routes.add(new Route(host, domain));
+            return this;
+        }
+
+        // a route the app must not have, e.g. the default public route of an internal app. it is
+        // never mapped and is unmapped from an app that has it from an earlier deploy
+        public App unmapRoute(String host, String domain) {
+            this.unmappedRoutes.add(new Route(host, domain));
+            return this;
+        }
+
+        // start only once the named apps have started
+        public App startAfter(String... apps) {
+            Collections.addAll(this.startAfter, apps);
+            return this;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getRole() {
+            return role;
+        }
+
+        public Path getJar() {
+            return jar;
+        }
+
+        public Map<String, String> getEnv() {
+            return env;
+        }
+
+        public Set<String> getServices() {
+            return services;
+        }
+
+        public List<Route> getRoutes() {
+            return routes;
+        }
+
+        public List<Route> getUnmappedRoutes() {
+            return unmappedRoutes;
+        }
+
+        // the routes the app ends up with
+        public List<Route> getFinalRoutes() {
+            return routes.stream()
+                    .filter(route -> !unmappedRoutes.contains(route))
+                    .collect(Collectors.toList());
+        }
+
+        public Set<String> getStartAfter() {
+            return startAfter;
+        }
+    }
+
+    public static class Route {
+        private final String host;
+        private final String domain;
+
+        public Route(String host, String domain) {
+            this.host = host;
+            this.domain = domain;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public String getDomain() {
+            return domain;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Route && toString().equals(other.toString());
+        }
+
+        @Override
+        public int hashCode() {
+            return toString().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return host + "." + domain;
+        }
+    }
+}
@@ -0,0 +1,641 @@
+package io.todos.cf.cfclient;
+
+import org.cloudfoundry.client.CloudFoundryClient;
+import org.cloudfoundry.client.v2.applications.ApplicationEntity;
+import org.cloudfoundry.client.v2.applications.ApplicationResource;
+import org.cloudfoundry.client.v2.applications.CreateApplicationRequest;
+import org.cloudfoundry.client.v2.applications.DeleteApplicationRequest;
+import org.cloudfoundry.client.v2.applications.GetApplicationRequest;
+import org.cloudfoundry.client.v2.applications.ListApplicationsRequest;
+import org.cloudfoundry.client.v2.applications.UpdateApplicationRequest;
+import org.cloudfoundry.client.v2.spaces.GetSpaceSummaryRequest;
+import org.cloudfoundry.client.v2.spaces.SpaceApplicationSummary;
+import org.cloudfoundry.doppler.DopplerClient;
+import org.cloudfoundry.doppler.Envelope;
+import org.cloudfoundry.doppler.LogMessage;
+import org.cloudfoundry.doppler.StreamRequest;
+import org.cloudfoundry.networking.v1.policies.Policy;
+import org.cloudfoundry.networking.v1.policies.Ports;
+import org.cloudfoundry.operations.DefaultCloudFoundryOperations;
+import org.cloudfoundry.operations.applications.StartApplicationRequest;
+import org.cloudfoundry.util.ResourceUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+// turns a topology into a step graph: create the app with its env first,
+// then upload bits, binds and routes at once, then start
+@Component
+@Lazy
+public class TopologyExecutor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TopologyExecutor.class);
+
+    // blue/green pushes the new stack next to the live one under these names
+    static final String NEXT = "-next";
+    // edge finds the backends through these, see Topologies.edge
+    private static final List<String> ENDPOINTS = Arrays.asList("TODOS_UI_ENDPOINT", "TODOS_API_ENDPOINT");
+    // cf default memory for apps
+    private final int cfMemory;
+    // service binds in flight at once per deploy
+    private final int bindConcurrency;
+    // how long a blue/green app may take to stage and run all its instances
+    private final int readinessTimeout;
+    // cf operations API of the target org and space
+    private Targets targets;
+    // cf client API, for app creation and bits upload
+    private CloudFoundryClient client;
+    // uploads only the bits the platform doesn't have
+    private ApplicationBits bits;
+    // streams those bits from the jar, see ApplicationBits.upload
+    private StreamingUpload streaming;
+    // step and call latencies by app role
+    private Metrics metrics;
+    // jar digests and package timestamps of the last deploy, see redeploy
+    private Ledger ledger;
+    // app log streams, see logs
+    private DopplerClient doppler;
+
+    public TopologyExecutor(@Autowired Targets targets,
+                            @Autowired CloudFoundryClient client,
+                            @Autowired ApplicationBits bits,
+                            @Autowired StreamingUpload streaming,
+                            @Autowired Metrics metrics,
+                            @Autowired Ledger ledger,
+                            @Autowired DopplerClient doppler,
+                            @Autowired CfProperties properties) {
+        this.targets = targets;
+        this.client = client;
+        this.bits = bits;
+        this.streaming = streaming;
+        this.metrics = metrics;
+        this.ledger = ledger;
+        this.doppler = doppler;
+        this.cfMemory = properties.getMemory();
+        this.bindConcurrency = properties.getBindConcurrency();
+        this.readinessTimeout = properties.getReadinessTimeout();
+    }
+
+    // how a stack goes out, e.g. TopologyExecutor::execute for a full push
+    public interface Deployment {
+        Mono<Void> run(TopologyExecutor executor, Topology topology, StepListener listener);
+    }
+
+    public Mono<Void> execute(Topology topology) {
+        return execute(topology, StepListener.NONE);
+    }
+
+    public Mono<Void> execute(Topology topology, StepListener listener) {
+        DefaultCloudFoundryOperations cf = targets.current();
+        return bits.share(plan(cf, topology).run(listener).then(record(cf, topology)));
+    }
+
+    // only what changed goes out. one space summary tells what runs, the ledger what jar it runs: a jar
+    // that changed or a package replaced since is uploaded and restaged, changed env, bindings or memory
+    // and stopped or crashed apps are restarted, missing routes mapped, and anything else is left alone.
+    // blue/green pushes just the changed apps next to the live ones instead
+    public Mono<Void> redeploy(Topology topology, boolean blueGreen, StepListener listener) {
+        DefaultCloudFoundryOperations cf = targets.current();
+        String target = Targets.key(cf);
+        return bits.share(Mono.zip(live(cf.getSpaceId()), digests(topology))
+                .flatMap(state -> {
+                    Map<String, Change> changes = new LinkedHashMap<>();
+                    for (Topology.App app : topology.getApps()) {
+                        changes.put(app.getName(), change(app, state.getT1().get(app.getName()),
+                                ledger.get(target, app.getName()), state.getT2().get(app.getName())));
+                    }
+                    LOGGER.info("redeploy {} on {}: {}", topology.getTag(), target, changes);
+                    List<String> changed = changes.entrySet().stream()
+                            .filter(change -> change.getValue() != Change.NONE)
+                            .map(Map.Entry::getKey)
+                            .collect(Collectors.toList());
+                    if (changed.isEmpty()) {
+                        return Mono.empty();
+                    }
+                    StepGraph graph = blueGreen
+                            ? planBlueGreen(cf, topology.only(changed), topology, state.getT1())
+                            : planChanges(cf, topology, changes, state.getT1());
+                    return graph.run(listener).then(record(cf, topology));
+                }));
+    }
+
+    // the network policies from or to the named apps, those the topology doesn't need marked. prune
+    // deletes the ones between the named apps in one call, policies to apps elsewhere are only listed
+    public Flux<String> policies(Topology topology, Collection<String> names, boolean prune) {
+        DefaultCloudFoundryOperations cf = targets.current();
+        NetworkPolicies policies = new NetworkPolicies(cf.getNetworkingClient());
+        return live(cf.getSpaceId())
+                .flatMapMany(live -> {
+                    Map<String, String> applicationIds = new HashMap<>();
+                    Map<String, String> applicationNames = new HashMap<>();
+                    live.values().stream()
+                            .filter(app -> names.contains(app.getName()))
+                            .forEach(app -> {
+                                applicationIds.put(app.getName(), app.getId());
+                                applicationNames.put(app.getId(), app.getName());
+                            });
+                    List<Policy> wanted = NetworkPolicies.derive(topology).stream()
+                            .filter(policy -> applicationIds.containsKey(policy.getSource())
+                                    && applicationIds.containsKey(policy.getDestination()))
+                            .map(policy -> NetworkPolicies.policy(applicationIds.get(policy.getSource()),
+                                    applicationIds.get(policy.getDestination()), policy.getPort()))
+                            .collect(Collectors.toList());
+                    return policies.list(applicationIds.values())
+                            .collectList()
+                            .flatMapMany(existing -> {
+                                List<Policy> unneeded = existing.stream()
+                                        .filter(policy -> !wanted.contains(policy)
+                                                && applicationNames.containsKey(policy.getSource().getId())
+                                                && applicationNames.containsKey(policy.getDestination().getId()))
+                                        .collect(Collectors.toList());
+                                Flux<String> rows = Flux.fromIterable(existing)
+                                        .map(policy -> String.format("%-32s %-32s %-12s %s",
+                                                applicationNames.getOrDefault(policy.getSource().getId(),
+                                                        policy.getSource().getId()),
+                                                applicationNames.getOrDefault(policy.getDestination().getId(),
+                                                        policy.getDestination().getId()),
+                                                policy.getDestination().getProtocol() + ":"
+                                                        + ports(policy.getDestination().getPorts()),
+                                                !unneeded.contains(policy) ? "" : prune ? "pruned" : "not needed"));
+                                return prune ? policies.delete(unneeded).thenMany(rows) : rows;
+                            });
+                });
+    }
+
+    // the log lines of the named app in the target space from now on, staging and cell lines included. the
+    // stream only carries what is logged while it is open, so a follower opens it as soon as the app exists
+    public Flux<LogMessage> logs(String name) {
+        return targets.current().getSpaceId()
+                .flatMap(spaceId -> application(spaceId, name))
+                .flatMapMany(application -> doppler.stream(StreamRequest.builder()
+                        .applicationId(ResourceUtils.getId(application))
+                        .build()))
+                // the stream carries the app's http and metric envelopes too
+                .filter(envelope -> envelope.getLogMessage() != null)
+                .map(Envelope::getLogMessage);
+    }
+
+    // deletes the named apps in the target space and, with createdBefore, every app of any stack created
+    // before it, along with their bindings, policies and unused routes, see Teardown
+    public Flux<String> teardown(Set<String> names, Predicate<String> stack, Instant createdBefore,
+                                 int parallelism) {
+        DefaultCloudFoundryOperations cf = targets.current();
+        return new Teardown(client, new NetworkPolicies(cf.getNetworkingClient()), cf.getSpaceId(), parallelism)
+                .run(names, stack, createdBefore);
+    }
+
+    // a plan keeps the target it was made for, switching targets doesn't move a running push
+    private StepGraph plan(DefaultCloudFoundryOperations cf, Topology topology) {
+        Mono<String> spaceId = cf.getSpaceId();
+        StepGraph graph = new StepGraph();
+        Map<String, String> applicationIds = new ConcurrentHashMap<>();
+        Bindings bindings = new Bindings(client, spaceId, bindConcurrency);
+        RoutePlan routes = new RoutePlan(client, spaceId);
+        List<NetworkPolicies.Allowed> allowed = NetworkPolicies.derive(topology);
+        List<String> connected = new ArrayList<>();
+        for (Topology.App app : topology.getApps()) {
+            String name = app.getName();
+            String create = graph.step(name + ":create", timed("create", app,
+                    () -> createApplication(name, app.getEnv(), spaceId)
+                            .doOnNext(applicationId -> applicationIds.put(name, applicationId))
+                            .then()));
+
+            List<String> configured = new ArrayList<>();
+            configured.add(graph.step(name + ":upload", timed("upload", app,
+                    () -> bits.upload(client, streaming, applicationIds.get(name), app.getJar())), create));
+            for (String service : app.getServices()) {
+                configured.add(graph.step(name + ":bind:" + service, timed("bind", app,
+                        () -> bindings.bind(applicationIds.get(name), service)), create));
+            }
+            List<String> mapped = new ArrayList<>();
+            mapped.add(create);
+            for (Topology.Route route : app.getFinalRoutes()) {
+                mapped.add(graph.step(name + ":map:" + route, timed("map", app,
+                        () -> routes.map(applicationIds.get(name), route)), create));
+            }
+            configured.addAll(mapped);
+            // unmap once the replacement routes are in place
+            for (Topology.Route route : app.getUnmappedRoutes()) {
+                configured.add(graph.step(name + ":unmap:" + route, timed("unmap", app,
+                        () -> routes.unmap(applicationIds.get(name), route)), mapped));
+            }
+            if (isConnected(allowed, name)) {
+                connected.add(create);
+            }
+            if (isSource(allowed, name)) {
+                configured.add(policies(topology));
+            }
+            for (String other : planned(topology, app.getStartAfter())) {
+                configured.add(other + ":start");
+            }
+            // start covers staging and waiting for instances to run
+            graph.step(name + ":start", timed("start", app,
+                    () -> cf.applications()
+                            .start(StartApplicationRequest.builder()
+                                    .name(name).build())), configured);
+        }
+        policies(graph, cf, topology, allowed, applicationIds, connected);
+        return graph;
+    }
+
+    // blue/green: each app is pushed next to the live one as <name>-next without routes. once all its
+    // instances run it takes over the live app's routes, and once every app has, the live apps are deleted
+    // and the next ones renamed. edge gets its backend endpoints only after the backends have switched, so
+    // it never points at an app that isn't healthy. until a switch the live stack serves unchanged, a failed
+    // redeploy leaves the next apps behind for the next attempt to reuse. stack is the whole topology, for
+    // the policies between the pushed apps and the live ones they talk to
+    private StepGraph planBlueGreen(DefaultCloudFoundryOperations cf, Topology topology, Topology stack,
+                                    Map<String, SpaceApplicationSummary> live) {
+        Mono<String> spaceId = cf.getSpaceId();
+        StepGraph graph = new StepGraph();
+        Map<String, String> applicationIds = new ConcurrentHashMap<>();
+        Bindings bindings = new Bindings(client, spaceId, bindConcurrency);
+        RoutePlan routes = new RoutePlan(client, spaceId);
+        List<String> pushed = planned(topology, stack.getApps().stream()
+                .map(Topology.App::getName)
+                .collect(Collectors.toList()));
+        // an app that isn't pushed keeps its live id
+        live.forEach((name, app) -> applicationIds.put(name, app.getId()));
+        Predicate<String> present = name -> pushed.contains(name) || live.containsKey(name);
+        List<NetworkPolicies.Allowed> allowed = NetworkPolicies.derive(stack);
+        allowed.removeIf(policy -> !pushed.contains(policy.getSource()) && !pushed.contains(policy.getDestination())
+                || !present.test(policy.getSource()) || !present.test(policy.getDestination()));
+        List<String> connected = new ArrayList<>();
+        // backends are planned first so edge can depend on their switches
+        List<Topology.App> apps = new ArrayList<>(topology.getApps());
+        apps.sort(Comparator.comparing(TopologyExecutor::isEdge));
+        List<String> backends = new ArrayList<>();
+        List<String> switched = new ArrayList<>();
+        for (Topology.App app : apps) {
+            String name = app.getName();
+            String next = name + NEXT;
+            Map<String, String> env = new LinkedHashMap<>(app.getEnv());
+            env.keySet().removeAll(ENDPOINTS);
+            String create = graph.step(name + ":next:create", timed("create", app,
+                    () -> createApplication(next, env, spaceId)
+                            .doOnNext(applicationId -> applicationIds.put(name, applicationId))
+                            .then()));
+
+            List<String> configured = new ArrayList<>();
+            configured.add(graph.step(name + ":next:upload", timed("upload", app,
+                    () -> bits.upload(client, streaming, applicationIds.get(name), app.getJar())), create));
+            for (String service : app.getServices()) {
+                configured.add(graph.step(name + ":next:bind:" + service, timed("bind", app,
+                        () -> bindings.bind(applicationIds.get(name), service)), create));
+            }
+            if (isEdge(app)) {
+                List<String> ready = new ArrayList<>(backends);
+                ready.add(create);
+                configured.add(graph.step(name + ":next:endpoints", timed("env", app,
+                        () -> updateEnvironment(applicationIds.get(name), app.getEnv())), ready));
+            }
+            // the policies are for the next apps, which keep their ids when they take the live names
+            if (isConnected(allowed, name)) {
+                connected.add(create);
+            }
+            if (isSource(allowed, name)) {
+                configured.add(policies(topology));
+            }
+            for (String other : planned(topology, app.getStartAfter())) {
+                configured.add(other + ":next:running");
+            }
+            String start = graph.step(name + ":next:start", timed("start", app,
+                    () -> client.applicationsV2()
+                            .update(UpdateApplicationRequest.builder()
+                                    .applicationId(applicationIds.get(name))
+                                    .state("STARTED")
+                                    .build())
+                            .then()), configured);
+            String running = graph.step(name + ":next:running", timed("running", app,
+                    () -> Readiness.running(client, applicationIds.get(name), Duration.ofSeconds(readinessTimeout))),
+                    start);
+            String swap = graph.step(name + ":switch", timed("switch", app,
+                    () -> switchRoutes(routes, spaceId, app, applicationIds.get(name))), running);
+            if (!isEdge(app)) {
+                backends.add(swap);
+            }
+            switched.add(swap);
+        }
+        policies(graph, cf, topology, allowed, applicationIds, connected);
+        for (Topology.App app : apps) {
+            graph.step(app.getName() + ":retire", timed("retire", app,
+                    () -> retire(spaceId, app.getName(), applicationIds.get(app.getName()))), switched);
+        }
+        return graph;
+    }
+
+    // in place, each app gets only the steps its change needs
+    private StepGraph planChanges(DefaultCloudFoundryOperations cf, Topology topology, Map<String, Change> changes,
+                                  Map<String, SpaceApplicationSummary> live) {
+        Mono<String> spaceId = cf.getSpaceId();
+        StepGraph graph = new StepGraph();
+        Map<String, String> applicationIds = new ConcurrentHashMap<>();
+        Bindings bindings = new Bindings(client, spaceId, bindConcurrency);
+        RoutePlan routes = new RoutePlan(client, spaceId);
+        List<NetworkPolicies.Allowed> allowed = NetworkPolicies.derive(topology);
+        List<String> connected = new ArrayList<>();
+        for (Topology.App app : topology.getApps()) {
+            String name = app.getName();
+            Change change = changes.get(name);
+            SpaceApplicationSummary current = live.get(name);
+            if (current != null) {
+                applicationIds.put(name, current.getId());
+            }
+            if (change == Change.NONE) {
+                continue;
+            }
+            List<String> urls = current == null ? Collections.emptyList() : current.getUrls();
+            // routes of an app that isn't there yet are mapped once it's created
+            List<String> created = new ArrayList<>();
+            List<String> configured = new ArrayList<>();
+            if (change != Change.ROUTES) {
+                String create = graph.step(name + ":configure", timed("create", app,
+                        () -> createApplication(name, app.getEnv(), spaceId)
+                                .doOnNext(applicationId -> applicationIds.put(name, applicationId))
+                                .then()));
+                created.add(create);
+                configured.add(create);
+                if (isConnected(allowed, name)) {
+                    connected.add(create);
+                }
+                if (change == Change.UPLOAD) {
+                    configured.add(graph.step(name + ":upload", timed("upload", app,
+                            () -> bits.upload(client, streaming, applicationIds.get(name), app.getJar())), create));
+                }
+                for (String service : app.getServices()) {
+                    if (current == null || !current.getServiceNames().contains(service)) {
+                        configured.add(graph.step(name + ":bind:" + service, timed("bind", app,
+                                () -> bindings.bind(applicationIds.get(name), service)), create));
+                    }
+                }
+            }
+            List<String> mapped = new ArrayList<>(created);
+            for (Topology.Route route : app.getFinalRoutes()) {
+                if (!urls.contains(route.toString())) {
+                    mapped.add(graph.step(name + ":map:" + route, timed("map", app,
+                            () -> routes.map(applicationIds.get(name), route)), created));
+                }
+            }
+            for (Topology.Route route : app.getUnmappedRoutes()) {
+                if (urls.contains(route.toString())) {
+                    configured.add(graph.step(name + ":unmap:" + route, timed("unmap", app,
+                            () -> routes.unmap(applicationIds.get(name), route)), mapped));
+                }
+            }
+            if (change == Change.ROUTES) {
+                continue;
+            }
+            configured.addAll(mapped);
+            if (isSource(allowed, name)) {
+                configured.add(policies(topology));
+            }
+            for (String other : planned(topology, app.getStartAfter())) {
+                if (changes.get(other) == Change.RESTART || changes.get(other) == Change.UPLOAD) {
+                    configured.add(other + ":running");
+                }
+            }
+            boolean started = current != null && "STARTED".equals(current.getState());
+            String restart = graph.step(name + ":restart", timed("start", app,
+                    () -> restart(applicationIds.get(name), started)), configured);
+            graph.step(name + ":running", timed("running", app,
+                    () -> Readiness.running(client, applicationIds.get(name), Duration.ofSeconds(readinessTimeout))),
+                    restart);
+        }
+        policies(graph, cf, topology, allowed, applicationIds, connected);
+        return graph;
+    }
+
+    // the cheapest step that brings a live app to the topology, NONE when it already matches
+    private Change change(Topology.App app, SpaceApplicationSummary live, Ledger.Entry last, String digest) {
+        if (live == null || last == null || !digest.equals(last.getDigest())
+                || !Objects.equals(last.getPackageUpdatedAt(), live.getPackageUpdatedAt())) {
+            return Change.UPLOAD;
+        }
+        Map<String, Object> env = live.getEnvironmentJsons() == null
+                ? Collections.emptyMap() : live.getEnvironmentJsons();
+        boolean configured = app.getEnv().entrySet().stream()
+                .allMatch(entry -> env.containsKey(entry.getKey())
+                        && entry.getValue().equals(String.valueOf(env.get(entry.getKey()))))
+                && live.getServiceNames().containsAll(app.getServices())
+                && Objects.equals(cfMemory, live.getMemory());
+        boolean running = "STARTED".equals(live.getState())
+                && Objects.equals(live.getRunningInstances(), live.getInstances());
+        if (!configured || !running) {
+            return Change.RESTART;
+        }
+        boolean routed = app.getFinalRoutes().stream().allMatch(route -> live.getUrls().contains(route.toString()))
+                && app.getUnmappedRoutes().stream().noneMatch(route -> live.getUrls().contains(route.toString()));
+        return routed ? Change.NONE : Change.ROUTES;
+    }
+
+    // after a deploy the ledger holds the jar and package each app now runs
+    private Mono<Void> record(DefaultCloudFoundryOperations cf, Topology topology) {
+        return Mono.zip(live(cf.getSpaceId()), digests(topology))
+                .doOnNext(state -> {
+                    Map<String, Ledger.Entry> entries = new HashMap<>();
+                    state.getT2().forEach((name, digest) -> {
+                        SpaceApplicationSummary app = state.getT1().get(name);
+                        if (app != null) {
+                            entries.put(name, new Ledger.Entry(digest, app.getPackageUpdatedAt()));
+                        }
+                    });
+                    ledger.record(Targets.key(cf), entries);
+                })
+                .then();
+    }
+
+    // every app of the space by name, in one call
+    private Mono<Map<String, SpaceApplicationSummary>> live(Mono<String> targetSpaceId) {
+        return targetSpaceId
+                .flatMap(spaceId -> client.spaces()
+                        .getSummary(GetSpaceSummaryRequest.builder()
+                                .spaceId(spaceId)
+                                .build()))
+                .map(summary -> summary.getApplications().stream()
+                        .collect(Collectors.toMap(SpaceApplicationSummary::getName, Function.identity(),
+                                (first, second) -> first)));
+    }
+
+    private Mono<Map<String, String>> digests(Topology topology) {
+        return Flux.fromIterable(topology.getApps())
+                .flatMap(app -> bits.digest(app.getJar()).map(digest -> Tuples.of(app.getName(), digest)))
+                .collectMap(Tuple2::getT1, Tuple2::getT2);
+    }
+
+    // a started app is stopped first so it restages with its new bits or env
+    private Mono<Void> restart(String applicationId, boolean started) {
+        Mono<Void> start = Mono.defer(() -> client.applicationsV2()
+                .update(UpdateApplicationRequest.builder()
+                        .applicationId(applicationId)
+                        .state("STARTED")
+                        .build())
+                .then());
+        return started
+                ? client.applicationsV2()
+                .update(UpdateApplicationRequest.builder()
+                        .applicationId(applicationId)
+                        .state("STOPPED")
+                        .build())
+                .then(start)
+                : start;
+    }
+
+    // times the whole step as "deploy.<operation>" and tags the calls it makes with the app role
+    private Supplier<Mono<Void>> timed(String operation, Topology.App app, Supplier<Mono<Void>> action) {
+        return () -> metrics.time("deploy." + operation, app.getRole(), Mono.defer(action))
+                .subscriberContext(context -> context.put(Metrics.ROLE, app.getRole()));
+    }
+
+    // env goes in with the create (or update) so the app is configured in one round trip
+    private Mono<String> createApplication(String name, Map<String, String> env, Mono<String> targetSpaceId) {
+        return targetSpaceId
+                .flatMap(spaceId -> application(spaceId, name)
+                        .flatMap(existing -> client.applicationsV2()
+                                .update(UpdateApplicationRequest.builder()
+                                        .applicationId(ResourceUtils.getId(existing))
+                                        .memory(this.cfMemory)
+                                        .environmentJsons(environment(ResourceUtils.getEntity(existing), env))
+                                        .build())
+                                .map(ResourceUtils::getId))
+                        .switchIfEmpty(Mono.defer(() -> client.applicationsV2()
+                                .create(CreateApplicationRequest.builder()
+                                        .name(name)
+                                        .spaceId(spaceId)
+                                        .memory(this.cfMemory)
+                                        .environmentJsons(env)
+                                        .build())
+                                .map(ResourceUtils::getId))));
+    }
+
+    private Mono<ApplicationResource> application(String spaceId, String name) {
+        return client.applicationsV2()
+                .list(ListApplicationsRequest.builder()
+                        .name(name)
+                        .spaceId(spaceId)
+                        .page(1)
+                        .build())
+                .flatMapMany(ResourceUtils::getResources)
+                .singleOrEmpty();
+    }
+
+    // one update with the env the app has plus the given one
+    private Mono<Void> updateEnvironment(String applicationId, Map<String, String> env) {
+        return client.applicationsV2()
+                .get(GetApplicationRequest.builder()
+                        .applicationId(applicationId)
+                        .build())
+                .flatMap(existing -> client.applicationsV2()
+                        .update(UpdateApplicationRequest.builder()
+                                .applicationId(applicationId)
+                                .environmentJsons(environment(ResourceUtils.getEntity(existing), env))
+                                .build()))
+                .then();
+    }
+
+    // the next app maps the routes before the live app unmaps them, so a route always has a running app
+    private Mono<Void> switchRoutes(RoutePlan routes, Mono<String> targetSpaceId, Topology.App app,
+                                    String nextApplicationId) {
+        return Flux.fromIterable(app.getFinalRoutes())
+                .flatMap(route -> routes.map(nextApplicationId, route))
+                .then(targetSpaceId.flatMap(spaceId -> application(spaceId, app.getName())))
+                .flatMapMany(live -> Flux.fromIterable(app.getFinalRoutes())
+                        .flatMap(route -> routes.unmap(ResourceUtils.getId(live), route)))
+                .then();
+    }
+
+    // the live app goes, a first deploy has none, and the next app takes its name
+    private Mono<Void> retire(Mono<String> targetSpaceId, String name, String nextApplicationId) {
+        return targetSpaceId
+                .flatMap(spaceId -> application(spaceId, name))
+                .flatMap(live -> client.applicationsV2()
+                        .delete(DeleteApplicationRequest.builder()
+                                .applicationId(ResourceUtils.getId(live))
+                                .build()))
+                .then(Mono.defer(() -> client.applicationsV2()
+                        .update(UpdateApplicationRequest.builder()
+                                .applicationId(nextApplicationId)
+                                .name(name)
+                                .build())))
+                .then();
+    }
+
+    // one networking call for the policies of the whole stack, once the apps they connect exist.
+    // the apps that reach others start after it
+    private void policies(StepGraph graph, DefaultCloudFoundryOperations cf, Topology topology,
+                          List<NetworkPolicies.Allowed> allowed, Map<String, String> applicationIds,
+                          List<String> created) {
+        if (!allowed.isEmpty()) {
+            NetworkPolicies policies = new NetworkPolicies(cf.getNetworkingClient());
+            graph.step(policies(topology), () -> metrics.time("deploy.policies",
+                    policies.create(allowed, applicationIds)), created);
+        }
+    }
+
+    private static String policies(Topology topology) {
+        return topology.getTag() + ":policies";
+    }
+
+    private static String ports(Ports ports) {
+        return ports.getStart().equals(ports.getEnd()) ? ports.getStart().toString()
+                : ports.getStart() + "-" + ports.getEnd();
+    }
+
+    private static boolean isSource(List<NetworkPolicies.Allowed> allowed, String name) {
+        return allowed.stream().anyMatch(policy -> policy.getSource().equals(name));
+    }
+
+    private static boolean isConnected(List<NetworkPolicies.Allowed> allowed, String name) {
+        return allowed.stream().anyMatch(policy -> policy.getSource().equals(name)
+                || policy.getDestination().equals(name));
+    }
+
+    // start-order edges to apps outside the topology don't hold anything up
+    private static List<String> planned(Topology topology, Collection<String> names) {
+        return topology.getApps().stream()
+                .map(Topology.App::getName)
+                .filter(names::contains)
+                .collect(Collectors.toList());
+    }
+
+    private static boolean isEdge(Topology.App app) {
+        return ENDPOINTS.stream().anyMatch(app.getEnv()::containsKey);
+    }
+
+    private enum Change {
+        NONE, ROUTES, RESTART, UPLOAD
+    }
+
+    private static Map<String, Object> environment(ApplicationEntity existing, Map<String, String> env) {
+        Map<String, Object> environment = new HashMap<>();
+        if (existing.getEnvironmentJsons() != null) {
+            environment.putAll(existing.getEnvironmentJsons());
+        }
+        environment.putAll(env);
+        return environment;
+    }
+}